@@ -0,0 +1,5 @@
+package #PACKAGE#;
+
+public class #CLASS# {
+    public static final String MODID = "#ID#";
+}
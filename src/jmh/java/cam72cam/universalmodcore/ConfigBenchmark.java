@@ -0,0 +1,30 @@
+package cam72cam.universalmodcore;
+
+import com.google.gson.JsonObject;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.Setup;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConfigBenchmark {
+    @Param({"0", "100", "1000"})
+    public int libraries;
+
+    private JsonObject data;
+
+    @Setup
+    public void setup() {
+        data = Fixtures.umcJson(libraries, null);
+    }
+
+    @Benchmark
+    public Config construct() throws Exception {
+        return new Config(data, "1.12.2", Loader.FORGE);
+    }
+}
@@ -0,0 +1,56 @@
+package cam72cam.universalmodcore;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.Setup;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExtractBenchmark {
+    @Param({"1", "4"})
+    public int threads;
+
+    @Param({"true", "false"})
+    public boolean force;
+
+    private Path temp;
+    private Path jar;
+    private Path root;
+    private Config config;
+    private PrintStream out;
+
+    @Setup
+    public void setup() throws Exception {
+        temp = Files.createTempDirectory("umc-bench");
+        jar = Fixtures.jar(temp.resolve("umc"), 2000, 200, 16 * 1024);
+        root = temp.resolve("workspace");
+        config = Fixtures.config(20, temp.resolve("umc").toString());
+        // Keep the per-path listing out of the measurement
+        out = System.out;
+        System.setOut(new PrintStream(new NullOutputStream()));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        System.setOut(out);
+        FileUtils.deleteDirectory(temp.toFile());
+    }
+
+    @Benchmark
+    public int extract() throws IOException {
+        WorkspaceWriter writer = new WorkspaceWriter(root, force);
+        new TemplateExtractor(config, root, writer, threads).extract(jar);
+        return writer.getWritten();
+    }
+}
@@ -0,0 +1,145 @@
+package cam72cam.universalmodcore;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Synthetic inputs shared by the benchmarks
+ */
+public class Fixtures {
+    public static final String[] TOKENS = {
+            "#PACKAGE#", "#PACKAGEPATH#", "#CLASS#", "#NAME#", "#ID#", "#VERSION#", "#LOADER_VERSION#", "#UMC_VERSION#",
+            "#MOD_DEPENDENCIES#", "#LIB_REPOS#", "#FORGE_TOML_DEPENDENCIES#"
+    };
+
+    public static JsonObject umcJson(int libraries, String umcPath) {
+        JsonObject mod = new JsonObject();
+        mod.addProperty("pkg", "com.example.benchmod");
+        mod.addProperty("cls", "BenchMod");
+        mod.addProperty("name", "Bench Mod");
+        mod.addProperty("id", "benchmod");
+        mod.addProperty("version", "1.0.0");
+        JsonObject dependencies = new JsonObject();
+        JsonObject dependency = new JsonObject();
+        dependency.addProperty("versions", "[1.0,2.0)");
+        dependencies.add("otherMod", dependency);
+        mod.add("dependencies", dependencies);
+
+        JsonArray libs = new JsonArray();
+        for (int i = 0; i < libraries; i++) {
+            JsonObject lib = new JsonObject();
+            lib.addProperty("artifact", "com.example:lib" + i + ":1.0");
+            lib.addProperty("repositoryType", i % 4 == 0 ? "Dir" : "URL");
+            lib.addProperty("repository", i % 4 == 0 ? "libs/" + i : "https://maven.example.com/" + i);
+            lib.addProperty("type", "implementation");
+            if (i % 3 == 0) {
+                lib.addProperty("relocate", "com.example.lib" + i + " | com.example.benchmod.lib" + i);
+            }
+            if (i % 5 == 0) {
+                JsonArray onlyIn = new JsonArray();
+                onlyIn.add("1.12.2-forge");
+                lib.add("onlyIn", onlyIn);
+            }
+            libs.add(lib);
+        }
+        mod.add("libraries", libs);
+
+        JsonObject umc = new JsonObject();
+        umc.addProperty("version", "1.2.3");
+        if (umcPath != null) {
+            umc.addProperty("path", umcPath);
+        }
+
+        JsonObject data = new JsonObject();
+        data.add("mod", mod);
+        data.add("umc", umc);
+        return data;
+    }
+
+    public static Config config(int libraries, String umcPath) throws Exception {
+        return new Config(umcJson(libraries, umcPath), "1.12.2", Loader.FORGE);
+    }
+
+    /**
+     * VAR_0 through VAR_<count - 1>
+     */
+    public static Map<String, String> vars(int count) {
+        Map<String, String> vars = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            vars.put("VAR_" + i, "value-" + i);
+        }
+        return vars;
+    }
+
+    /**
+     * text(size, seed) with a #VAR_n# token (cycling through vars(variables)) every 97 characters
+     */
+    public static String text(int size, long seed, int variables) {
+        String text = text(size, seed);
+        StringBuilder sb = new StringBuilder(text.length() + text.length() / 97 * 12);
+        for (int i = 0; i < text.length(); i += 97) {
+            sb.append("#VAR_").append(i / 97 % variables).append('#');
+            sb.append(text, i, Math.min(i + 97, text.length()));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Gradle/Java like text of roughly the given size, with a token every few lines
+     */
+    public static String text(int size, long seed) {
+        Random random = new Random(seed);
+        StringBuilder sb = new StringBuilder(size + 128);
+        while (sb.length() < size) {
+            sb.append("    implementation 'com.example:artifact:").append(random.nextInt(1000)).append("'\n");
+            if (random.nextInt(4) == 0) {
+                sb.append("    // ").append(TOKENS[random.nextInt(TOKENS.length)]).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A UMC-like jar at umcPath/build/libs: a bulk of class files plus template/ text and binary entries
+     */
+    public static Path jar(Path umcPath, int classes, int templates, int templateSize) throws IOException {
+        Path jar = umcPath.resolve("build/libs/UniversalModCore-1.12.2-forge-1.2.3.jar");
+        Files.createDirectories(jar.getParent());
+        Random random = new Random(42);
+        try (OutputStream file = Files.newOutputStream(jar); ZipOutputStream zip = new ZipOutputStream(file)) {
+            byte[] bytes = new byte[8192];
+            for (int i = 0; i < classes; i++) {
+                zip.putNextEntry(new ZipEntry("cam72cam/mod/Class" + i + ".class"));
+                random.nextBytes(bytes);
+                zip.write(bytes);
+                zip.closeEntry();
+            }
+            zip.putNextEntry(new ZipEntry("template/template.gradle"));
+            zip.write("// header //\n#MOD_DEPENDENCIES#\n//deps//\n".getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+            for (int i = 0; i < templates; i++) {
+                zip.putNextEntry(new ZipEntry("template/src/main/java/PACKAGEPATH/File" + i + ".java"));
+                zip.write(text(templateSize, i).getBytes(StandardCharsets.UTF_8));
+                zip.closeEntry();
+                if (i % 4 == 0) {
+                    zip.putNextEntry(new ZipEntry("template/src/main/resources/assets/ID/textures/texture" + i + ".png"));
+                    random.nextBytes(bytes);
+                    zip.write(bytes);
+                    zip.closeEntry();
+                }
+            }
+        }
+        return jar;
+    }
+}
@@ -0,0 +1,43 @@
+package cam72cam.universalmodcore;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.Setup;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MergeBenchmark {
+    @Param({"100", "5000"})
+    public int lines;
+
+    private Config config;
+    private String build;
+    private String template;
+
+    @Setup
+    public void setup() throws Exception {
+        config = Fixtures.config(20, null);
+        StringBuilder build = new StringBuilder();
+        StringBuilder template = new StringBuilder();
+        for (int block = 0; block * 50 < lines; block++) {
+            String marker = "// block " + block + " //";
+            build.append(marker).append('\n').append(Fixtures.text(1000, block));
+            template.append(marker).append('\n').append(Fixtures.text(50 * 40, -block));
+        }
+        this.build = build.toString();
+        this.template = template.toString();
+    }
+
+    @Benchmark
+    public GradleMerge.Result merge() throws IOException {
+        return GradleMerge.merge(new BufferedReader(new StringReader(build)), new BufferedReader(new StringReader(template)), config::replace);
+    }
+}
@@ -0,0 +1,35 @@
+package cam72cam.universalmodcore;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.Setup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReplaceAllBenchmark {
+    @Param({"4096", "4194304"})
+    public int size;
+
+    private Config config;
+    private byte[] data;
+
+    @Setup
+    public void setup() throws Exception {
+        config = Fixtures.config(20, null);
+        data = Fixtures.text(size, 2).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public void streaming() throws IOException {
+        config.replaceAll(new ByteArrayInputStream(data), new NullOutputStream(), true);
+    }
+}
@@ -0,0 +1,47 @@
+package cam72cam.universalmodcore;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.Setup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReplaceBenchmark {
+    @Param({"10", "50", "200"})
+    public int variables;
+
+    @Param({"1024", "65536", "1048576"})
+    public int size;
+
+    private Replacer configReplacer;
+    private Replacer replacer;
+    private String text;
+
+    @Setup
+    public void setup() throws Exception {
+        Map<String, String> vars = Fixtures.vars(variables);
+        replacer = new Replacer(vars, true);
+        // What Config.replace runs, with the extra variables umc.json can not express
+        Map<String, String> configVars = new HashMap<>(Fixtures.config(20, null).getVars());
+        configVars.putAll(vars);
+        configReplacer = new Replacer(configVars, true);
+        text = Fixtures.text(size, 1, variables);
+    }
+
+    @Benchmark
+    public String configReplace() {
+        return configReplacer.apply(text);
+    }
+
+    @Benchmark
+    public String replacer() {
+        return replacer.apply(text);
+    }
+}
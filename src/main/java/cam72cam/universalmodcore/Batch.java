@@ -0,0 +1,84 @@
+package cam72cam.universalmodcore;
+
+import com.google.gson.JsonObject;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Generates several loader branches in one JVM: <loader-branch>[=<output-dir>]...
+ *
+ * umc.json and the user's build.gradle are read once, targets run concurrently, and the jar, git and version caches
+ * are shared between them.
+ */
+public class Batch {
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+        if (options.has("report")) {
+            Metrics.enable();
+        }
+        if (options.positional.isEmpty()) {
+            System.err.println("No loader branches specified! Usage: <loader-branch>[=<output-dir>]...  For example, '1.12.2-forge=forge-1.12'.");
+            return;
+        }
+
+        JsonObject configObj = Setup.readConfig();
+        // Targets write their own build.gradle, the user's blocks come from the invocation directory
+        String build = Setup.readBuild(Paths.get(System.getProperty("user.dir")));
+        JarCache cache = JarCache.fromOptions(options);
+        // Targets may still be reading a jar another target's download would evict
+        cache.deferEviction();
+        Boolean useSSH = options.has("git") ? !options.get("git", "").equals("https") : null;
+
+        List<String> branches = new ArrayList<>();
+        List<Path> roots = new ArrayList<>();
+        for (String target : options.positional) {
+            int split = target.indexOf('=');
+            branches.add(split < 0 ? target : target.substring(0, split));
+            roots.add(Paths.get(System.getProperty("user.dir"), split < 0 ? target : target.substring(split + 1)));
+        }
+
+        ForkJoinPool pool = new ForkJoinPool((int) options.getLong("jobs", Math.min(branches.size(), Runtime.getRuntime().availableProcessors())));
+        List<ForkJoinTask<Long>> tasks = new ArrayList<>();
+        for (int i = 0; i < branches.size(); i++) {
+            String branch = branches.get(i);
+            Path root = roots.get(i);
+            tasks.add(pool.submit(() -> {
+                long start = System.currentTimeMillis();
+                Config config = Setup.createConfig(configObj, branch, options);
+                Setup.generate(config, root, build, options, cache, useSSH);
+                return System.currentTimeMillis() - start;
+            }));
+        }
+
+        int failed = 0;
+        System.out.println();
+        for (int i = 0; i < branches.size(); i++) {
+            try {
+                long time = tasks.get(i).get();
+                System.out.printf("%-20s OK     %6dms  %s%n", branches.get(i), time, roots.get(i));
+            } catch (ExecutionException e) {
+                failed++;
+                Throwable cause = e;
+                while (cause.getCause() != null) {
+                    cause = cause.getCause();
+                }
+                System.out.printf("%-20s FAILED          %s: %s%n", branches.get(i), roots.get(i), cause);
+                Metrics.failed(branches.get(i), cause);
+            }
+        }
+        pool.shutdown();
+        cache.evict();
+        Setup.writeReport(options);
+
+        if (failed != 0) {
+            System.err.printf("%d of %d targets failed%n", failed, branches.size());
+            System.exit(1);
+        }
+    }
+}
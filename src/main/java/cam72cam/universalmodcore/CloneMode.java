@@ -0,0 +1,35 @@
+package cam72cam.universalmodcore;
+
+import java.util.Arrays;
+
+public enum CloneMode {
+    /** Every branch, full history */
+    FULL("full"),
+    /** Only the requested branch, full history */
+    BRANCH("branch"),
+    /**
+     * Only the requested branch, limited to a depth.  Needs JGit 6.3+: with the JGit 5.13 this builds against (the last
+     * to support Java 8) it fetches the full branch like BRANCH, and warns that it does.
+     */
+    SHALLOW("shallow");
+
+    private final String name;
+
+    CloneMode(String str) {
+        this.name = str;
+    }
+
+    public static CloneMode parse(String str) {
+        for (CloneMode mode : values()) {
+            if (mode.name.equalsIgnoreCase(str)) {
+                return mode;
+            }
+        }
+        throw new IllegalArgumentException("Clone mode must be one of followings: " + Arrays.toString(CloneMode.values()));
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
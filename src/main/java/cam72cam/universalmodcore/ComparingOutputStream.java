@@ -0,0 +1,119 @@
+package cam72cam.universalmodcore;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Compares everything written against an existing file, and only starts writing (to a temp file next to it) once
+ * the content diverges.  Identical output never touches the target.
+ */
+public class ComparingOutputStream extends OutputStream {
+    private final Path target;
+    private InputStream existing;
+    private long matched;
+    private Path temp;
+    private OutputStream diverged;
+    private byte[] scratch = new byte[8192];
+
+    public ComparingOutputStream(Path target) throws IOException {
+        this.target = target;
+        this.existing = new BufferedInputStream(Files.newInputStream(target));
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (diverged == null && len > 0) {
+            int chunk = Math.min(len, scratch.length);
+            int read = readFully(existing, scratch, chunk);
+            int same = 0;
+            while (same < read && scratch[same] == b[off + same]) {
+                same++;
+            }
+            matched += same;
+            off += same;
+            len -= same;
+            if (same < chunk) {
+                diverge();
+            }
+        }
+        if (len > 0) {
+            diverged.write(b, off, len);
+        }
+    }
+
+    /**
+     * @return true if the target was rewritten, false if it was already identical
+     */
+    public boolean finish() throws IOException {
+        if (diverged == null) {
+            if (existing.read() < 0) {
+                existing.close();
+                existing = null;
+                return false;
+            }
+            // Existing file is longer than the new content
+            diverge();
+        }
+        diverged.close();
+        diverged = null;
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        temp = null;
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (existing != null) {
+            existing.close();
+            existing = null;
+        }
+        if (diverged != null) {
+            diverged.close();
+            diverged = null;
+        }
+        if (temp != null) {
+            Files.deleteIfExists(temp);
+            temp = null;
+        }
+    }
+
+    private void diverge() throws IOException {
+        existing.close();
+        existing = null;
+        scratch = null;
+
+        temp = target.resolveSibling(target.getFileName() + ".umc-tmp");
+        diverged = new BufferedOutputStream(Files.newOutputStream(temp));
+        try (InputStream prefix = new BufferedInputStream(Files.newInputStream(target))) {
+            byte[] buf = new byte[8192];
+            long remaining = matched;
+            while (remaining > 0) {
+                int read = prefix.read(buf, 0, (int) Math.min(buf.length, remaining));
+                if (read < 0) {
+                    throw new EOFException("Target changed while being compared: " + target);
+                }
+                diverged.write(buf, 0, read);
+                remaining -= read;
+            }
+        }
+    }
+
+    private static int readFully(InputStream input, byte[] buf, int len) throws IOException {
+        int total = 0;
+        while (total < len) {
+            int read = input.read(buf, total, len - total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+}
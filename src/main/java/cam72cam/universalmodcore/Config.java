@@ -1,13 +1,13 @@
 package cam72cam.universalmodcore;
 
 import com.google.gson.JsonObject;
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
-import org.eclipse.jgit.api.errors.GitAPIException;
 
 import java.io.*;
-import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
 import java.util.*;
 import java.util.stream.Collectors;
@@ -16,7 +16,11 @@ public class Config {
     public final Mod mod;
     public final Integration integration;
     public final UMC umc;
+    public final Git git;
+    public final Templates templates;
     private final Map<String, String> vars = new HashMap<>();
+    private final Replacer hashReplacer;
+    private final Replacer plainReplacer;
     public final String minecraftLoader;
 
     public static class Mod {
@@ -60,11 +64,52 @@ public class Config {
         public final String repo;
         public final String branch;
         public final String path;
+        /** Repository paths (directories, files or globs) to check out, everything if empty */
+        public final List<String> include = new ArrayList<>();
+        /** Repository paths (directories, files or globs) never to check out */
+        public final List<String> exclude = new ArrayList<>();
+        private final List<PathMatcher> includeGlobs;
+        private final List<PathMatcher> excludeGlobs;
 
         public Integration(JsonObject data) {
             this.repo = data.get("repo").getAsString();
             this.branch = data.get("branch").getAsString();
             this.path = data.get("path").getAsString();
+            if (data.has("include")) {
+                data.get("include").getAsJsonArray().forEach(e -> include.add(e.getAsString()));
+            }
+            if (data.has("exclude")) {
+                data.get("exclude").getAsJsonArray().forEach(e -> exclude.add(e.getAsString()));
+            }
+            this.includeGlobs = globs(include);
+            this.excludeGlobs = globs(exclude);
+        }
+
+        public boolean isSparse() {
+            return !include.isEmpty() || !exclude.isEmpty();
+        }
+
+        /**
+         * @param path a '/' separated path in the integration repository
+         */
+        public boolean wants(String path) {
+            return (include.isEmpty() || matches(include, includeGlobs, path)) && !matches(exclude, excludeGlobs, path);
+        }
+
+        private static List<PathMatcher> globs(List<String> paths) {
+            return paths.stream()
+                    .map(p -> FileSystems.getDefault().getPathMatcher("glob:" + p))
+                    .collect(Collectors.toList());
+        }
+
+        private static boolean matches(List<String> paths, List<PathMatcher> globs, String path) {
+            for (int i = 0; i < paths.size(); i++) {
+                String prefix = paths.get(i).replaceAll("/+$", "");
+                if (path.equals(prefix) || path.startsWith(prefix + "/") || globs.get(i).matches(Paths.get(path))) {
+                    return true;
+                }
+            }
+            return false;
         }
     }
 
@@ -78,6 +123,40 @@ public class Config {
         }
     }
 
+    public static class Git {
+        public final CloneMode clone;
+        public final int depth;
+        public final boolean mirror;
+
+        public Git(JsonObject data, Options options) {
+            String mode = data != null && data.has("clone") ? data.get("clone").getAsString() : CloneMode.BRANCH.toString();
+            this.clone = CloneMode.parse(options.get("clone", mode));
+            int depth = data != null && data.has("depth") ? data.get("depth").getAsInt() : 1;
+            this.depth = (int) options.getLong("depth", depth);
+            boolean mirror = data != null && data.has("mirror") && data.get("mirror").getAsBoolean();
+            this.mirror = options.has("mirror") || mirror && !options.get("mirror", "true").equals("false");
+        }
+    }
+
+    public static class Templates {
+        /** Globs for template entries which always get variables substituted */
+        public final List<String> text = new ArrayList<>();
+        /** Globs for template entries which are always copied as is */
+        public final List<String> binary = new ArrayList<>();
+
+        public Templates(JsonObject data) {
+            if (data == null) {
+                return;
+            }
+            if (data.has("text")) {
+                data.get("text").getAsJsonArray().forEach(e -> text.add(e.getAsString()));
+            }
+            if (data.has("binary")) {
+                data.get("binary").getAsJsonArray().forEach(e -> binary.add(e.getAsString()));
+            }
+        }
+    }
+
     public static class Library {
         public final boolean isDir;
         public final String id;
@@ -121,10 +200,16 @@ public class Config {
         }
     }
 
-    public Config(JsonObject data, String mcVersion, Loader brand) throws GitAPIException, IOException {
+    public Config(JsonObject data, String mcVersion, Loader brand) throws IOException {
+        this(data, mcVersion, brand, new Options());
+    }
+
+    public Config(JsonObject data, String mcVersion, Loader brand, Options options) throws IOException {
         mod = new Mod(data.get("mod").getAsJsonObject());
         integration = data.has("integration") ? new Integration(data.get("integration").getAsJsonObject()) : null;
         umc = new UMC(data.get("umc").getAsJsonObject());
+        git = new Git(data.has("git") ? data.get("git").getAsJsonObject() : null, options);
+        templates = new Templates(data.has("templates") ? data.get("templates").getAsJsonObject() : null);
         this.minecraftLoader = mcVersion + "-" + brand.toString();
 
         vars.clear();
@@ -177,26 +262,15 @@ public class Config {
         String version = require("umc.version", umc.version);
 
         if (version.equals("latest")) {
-            File path;
-            File temp = null;
-            if (umc.path == null) {
-                temp = Files.createTempDirectory("umc-loader").toFile();
-                Util.gitClone("https://github.com/TeamOpenIndustry/UniversalModCore.git", minecraftLoader, temp, false);
-                path = temp;
-            } else {
-                path = Paths.get(System.getProperty("user.dir"), umc.path).toFile();
-            }
-            version = Files.readAllLines(Paths.get(path.getPath(), "build.gradle")).stream()
-                    .filter(x -> x.startsWith("String umcVersion = "))
-                    .findFirst()
-                    .get()
-                    .replace("String umcVersion = ", "")
-                    .replace("\"", "")
-                    .trim();
-            version += "-" + Util.gitRevision(path);
-
-            if (temp != null) {
-                FileUtils.deleteDirectory(temp);
+            try (Metrics.Timer timer = Metrics.time("latest")) {
+                if (umc.path == null) {
+                    version = LatestResolver.shared(options.getCacheDir())
+                            .resolve("https://github.com/TeamOpenIndustry/UniversalModCore.git", minecraftLoader, git.mirror ? GitMirror.shared(options.getCacheDir()) : null);
+                } else {
+                    File path = Paths.get(System.getProperty("user.dir"), umc.path).toFile();
+                    version = LatestResolver.umcVersion(Files.readAllLines(Paths.get(path.getPath(), "build.gradle")));
+                    version += "-" + Util.gitRevision(path);
+                }
             }
         }
 
@@ -263,9 +337,16 @@ public class Config {
         vars.put("FORGE_TOML_DEPENDENCIES", forgeTomlDependencies);
 
         vars.put("FABRIC_SOMETHING_DEPENDENCIES", "TODO");
+
+        hashReplacer = new Replacer(vars, true);
+        plainReplacer = new Replacer(vars, false);
     }
 
 
+    public Map<String, String> getVars() {
+        return Collections.unmodifiableMap(vars);
+    }
+
     private String require(String name, String s) {
         if (s == null || s.trim().isEmpty()) {
             throw new RuntimeException(String.format("Missing variable %s in config: %s", name, s));
@@ -274,10 +355,25 @@ public class Config {
     }
 
     public InputStream openJarStream() throws IOException {
+        return openJarStream(JarCache.fromOptions(new Options()));
+    }
+
+    public InputStream openJarStream(JarCache cache) throws IOException {
+        return Files.newInputStream(getJar(cache));
+    }
+
+    public Path getJar(JarCache cache) throws IOException {
+        return getJar(cache, null);
+    }
+
+    /**
+     * @param tap if not null and the jar has to be downloaded, is fed the jar as it arrives
+     */
+    public Path getJar(JarCache cache, Downloader.Tap tap) throws IOException {
         if (vars.containsKey("UMC_DOWNLOAD")) {
-            return new URL(vars.get("UMC_DOWNLOAD")).openStream();
+            return cache.fetch(vars.get("UMC_DOWNLOAD"), String.format("UniversalModCore-%s-%s", minecraftLoader, vars.get("UMC_VERSION")), tap);
         }
-        return new FileInputStream(vars.get("UMC_FILE"));
+        return Paths.get(vars.get("UMC_FILE"));
     }
 
     public String replace(String s) {
@@ -285,21 +381,35 @@ public class Config {
     }
 
     public String replace(String s, boolean hash) {
-        List<String> keys = new ArrayList<>(vars.keySet());
-        keys.sort(Comparator.comparingInt(String::length).reversed());
-        for (String var : keys) {
-            String val = vars.get(var);
-            if (hash) {
-                var = String.format("#%s#", var);
-            }
-            s = s.replace(var, val);
+        return (hash ? hashReplacer : plainReplacer).apply(s);
+    }
+
+    /**
+     * @param used collects the names of the variables found in s
+     */
+    public String replace(String s, boolean hash, Set<String> used) {
+        StringWriter writer = new StringWriter();
+        try {
+            (hash ? hashReplacer : plainReplacer).apply(new StringReader(s), writer, used);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-        return s;
+        return writer.toString();
     }
 
     public InputStream replaceAll(InputStream input, boolean hash) throws IOException {
-        String data = IOUtils.toString(input);
-        data = replace(data);
-        return new ByteArrayInputStream(data.getBytes());
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        replaceAll(input, output, hash);
+        return new ByteArrayInputStream(output.toByteArray());
+    }
+
+    public void replaceAll(InputStream input, OutputStream output, boolean hash) throws IOException {
+        replaceAll(input, output, hash, null);
+    }
+
+    public void replaceAll(InputStream input, OutputStream output, boolean hash, Set<String> used) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+        (hash ? hashReplacer : plainReplacer).apply(new InputStreamReader(input, StandardCharsets.UTF_8), writer, used);
+        writer.flush();
     }
 }
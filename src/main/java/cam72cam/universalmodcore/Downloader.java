@@ -0,0 +1,353 @@
+package cam72cam.universalmodcore;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * HTTP downloads which survive flaky mirrors.
+ *
+ * Every request has connect and read timeouts, and failures are retried with bounded exponential backoff.  Partial
+ * files are kept between attempts (and runs) and resumed with a Range request, guarded by If-Range so a changed
+ * artifact is fetched from scratch.  Callers may pass validators from a previous download to make the request
+ * conditional.
+ */
+public class Downloader {
+    private static final long MAX_BACKOFF = 30_000;
+    private static final long PROGRESS_INTERVAL = 2_000;
+
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final int attempts;
+    private final long backoff;
+
+    public static class Result {
+        /** The server reported the artifact unchanged, nothing was written */
+        public final boolean notModified;
+        public final String etag;
+        public final String lastModified;
+
+        Result(boolean notModified, String etag, String lastModified) {
+            this.notModified = notModified;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+    }
+
+    public interface Tap {
+        /**
+         * @param input the artifact from its first byte, which must not be closed
+         */
+        void accept(InputStream input) throws IOException;
+    }
+
+    /** An HTTP error status, only retried if the server may succeed later */
+    public static class HttpException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public final int status;
+
+        HttpException(String url, int status) {
+            super(String.format("%s returned HTTP %s", url, status));
+            this.status = status;
+        }
+
+        boolean isRetryable() {
+            return status >= 500 || status == 408 || status == 429;
+        }
+    }
+
+    public Downloader(int connectTimeout, int readTimeout, int attempts, long backoff) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.attempts = Math.max(attempts, 1);
+        this.backoff = backoff;
+    }
+
+    public static Downloader fromOptions(Options options) {
+        return new Downloader(
+                (int) options.getLong("connect-timeout", 15) * 1000,
+                (int) options.getLong("read-timeout", 30) * 1000,
+                (int) options.getLong("retries", 4) + 1,
+                500
+        );
+    }
+
+    /**
+     * Downloads url into part, resuming whatever part already holds.
+     *
+     * @param etag if not null, only download if the artifact no longer matches
+     * @param lastModified if not null, only download if the artifact changed since
+     */
+    public Result download(String url, Path part, String etag, String lastModified) throws IOException {
+        return download(url, part, etag, lastModified, null);
+    }
+
+    /**
+     * @param tap if not null, reads the artifact as it arrives.  Only called when a download starts from the first
+     *            byte (so possibly once per attempt, and not at all for a resumed download).  Whatever tap leaves unread
+     *            is still downloaded.
+     */
+    public Result download(String url, Path part, String etag, String lastModified, Tap tap) throws IOException {
+        return retry(url, () -> attempt(url, part, etag, lastModified, tap));
+    }
+
+    /**
+     * @return the body of url, or null if it does not exist
+     */
+    public String text(String url) throws IOException {
+        return retry(url, () -> {
+            HttpURLConnection conn = open(url);
+            try {
+                int status = conn.getResponseCode();
+                if (status == HttpURLConnection.HTTP_NOT_FOUND) {
+                    return null;
+                }
+                if (status != HttpURLConnection.HTTP_OK) {
+                    throw new HttpException(url, status);
+                }
+                try (InputStream input = conn.getInputStream()) {
+                    return IOUtils.toString(input, "UTF-8");
+                }
+            } finally {
+                conn.disconnect();
+            }
+        });
+    }
+
+    /**
+     * @return the status of a HEAD request for url (or a GET, for servers which refuse HEAD), once it is not an error
+     *         worth retrying
+     */
+    public int head(String url) throws IOException {
+        return retry(url, () -> {
+            int status = status(url, "HEAD");
+            if (status == HttpURLConnection.HTTP_BAD_METHOD || status == HttpURLConnection.HTTP_NOT_IMPLEMENTED) {
+                status = status(url, "GET");
+            }
+            if (status >= 500 || status == 408 || status == 429) {
+                throw new HttpException(url, status);
+            }
+            return status;
+        });
+    }
+
+    private int status(String url, String method) throws IOException {
+        HttpURLConnection conn = open(url);
+        try {
+            conn.setRequestMethod(method);
+            return conn.getResponseCode();
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    private interface Attempt<T> {
+        T run() throws IOException;
+    }
+
+    private <T> T retry(String url, Attempt<T> attempt) throws IOException {
+        for (int i = 1; ; i++) {
+            try {
+                return attempt.run();
+            } catch (IOException e) {
+                boolean retryable = !(e instanceof FileNotFoundException) &&
+                        !(e instanceof HttpException && !((HttpException) e).isRetryable());
+                if (!retryable || i >= attempts) {
+                    throw e;
+                }
+                long delay = Math.min(backoff << (i - 1), MAX_BACKOFF);
+                System.out.println(String.format("WARNING: %s failed (%s), retrying in %sms", url, e.getMessage(), delay));
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while downloading " + url, ie);
+                }
+            }
+        }
+    }
+
+    private HttpURLConnection open(String url) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+        conn.setConnectTimeout(connectTimeout);
+        conn.setReadTimeout(readTimeout);
+        conn.setInstanceFollowRedirects(true);
+        return conn;
+    }
+
+    private Result attempt(String url, Path part, String etag, String lastModified, Tap tap) throws IOException {
+        Path validatorFile = part.resolveSibling(part.getFileName() + ".validator");
+        long have = Files.exists(part) ? Files.size(part) : 0;
+        String validator = have > 0 && Files.exists(validatorFile) ?
+                new String(Files.readAllBytes(validatorFile), StandardCharsets.UTF_8) : null;
+
+        HttpURLConnection conn = open(url);
+        try {
+            if (etag != null) {
+                conn.setRequestProperty("If-None-Match", etag);
+            }
+            if (lastModified != null) {
+                conn.setRequestProperty("If-Modified-Since", lastModified);
+            }
+            if (validator != null) {
+                conn.setRequestProperty("Range", String.format("bytes=%s-", have));
+                conn.setRequestProperty("If-Range", validator);
+            }
+
+            int status = conn.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                return new Result(true, etag, lastModified);
+            }
+
+            boolean append;
+            if (status == HttpURLConnection.HTTP_OK) {
+                append = false;
+                have = 0;
+            } else if (validator != null && (status == 416 ||
+                    status == HttpURLConnection.HTTP_PARTIAL && startOf(conn.getHeaderField("Content-Range")) != have)) {
+                // Our partial file does not fit the artifact, start over on the next attempt
+                Files.deleteIfExists(part);
+                throw new IOException(String.format("%s rejected resume at byte %s", url, have));
+            } else if (status == HttpURLConnection.HTTP_PARTIAL && validator != null) {
+                append = true;
+            } else {
+                throw new HttpException(url, status);
+            }
+
+            String newEtag = conn.getHeaderField("ETag");
+            String newLastModified = conn.getHeaderField("Last-Modified");
+            String newValidator = newEtag != null && !newEtag.startsWith("W/") ? newEtag : newLastModified;
+            if (!append) {
+                if (newValidator != null) {
+                    Files.write(validatorFile, newValidator.getBytes(StandardCharsets.UTF_8));
+                } else {
+                    Files.deleteIfExists(validatorFile);
+                }
+            }
+
+            long length = conn.getContentLengthLong();
+            long total = length < 0 ? -1 : have + length;
+            if (append) {
+                System.out.println(String.format("Resuming %s at %s", url, megabytes(have)));
+            }
+
+            Tee tee = null;
+            try (InputStream input = conn.getInputStream();
+                 OutputStream output = Files.newOutputStream(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                         append ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING)) {
+                tee = new Tee(input, output, have, total);
+                if (tap != null && !append) {
+                    tap.accept(tee);
+                }
+                byte[] buf = new byte[64 * 1024];
+                while (tee.read(buf) >= 0) {
+                    // Drain whatever tap left unread
+                }
+            } finally {
+                Metrics.read("jar", tee == null ? 0 : tee.received);
+            }
+
+            if (length >= 0 && tee.received != length) {
+                throw new IOException(String.format("%s ended after %s of %s bytes", url, tee.received, length));
+            }
+            Files.deleteIfExists(validatorFile);
+            return new Result(false, newEtag, newLastModified);
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    /**
+     * Copies every byte read into output, and reports progress along the way
+     */
+    private static class Tee extends FilterInputStream {
+        private final OutputStream output;
+        private final long start;
+        private final long total;
+        private long received;
+        private long reported = System.currentTimeMillis();
+
+        Tee(InputStream input, OutputStream output, long start, long total) {
+            super(input);
+            this.output = output;
+            this.start = start;
+            this.total = total;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                output.write(b);
+                advance(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                output.write(b, off, n);
+                advance(n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Skipped bytes still have to reach output
+            byte[] buf = new byte[(int) Math.min(n, 8192)];
+            int read = read(buf, 0, buf.length);
+            return Math.max(read, 0);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+            // Owned by the download
+        }
+
+        private void advance(int n) {
+            received += n;
+            if (System.currentTimeMillis() - reported > PROGRESS_INTERVAL) {
+                reported = System.currentTimeMillis();
+                long done = start + received;
+                System.out.println(total < 0 ?
+                        String.format("  %s", megabytes(done)) :
+                        String.format("  %s of %s (%s%%)", megabytes(done), megabytes(total), done * 100 / total));
+            }
+        }
+    }
+
+    private static long startOf(String contentRange) {
+        // bytes <start>-<end>/<total>
+        if (contentRange == null || !contentRange.startsWith("bytes ")) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentRange.substring(6, contentRange.indexOf('-')).trim());
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    private static String megabytes(long bytes) {
+        return String.format("%.1fMB", bytes / 1024.0 / 1024.0);
+    }
+}
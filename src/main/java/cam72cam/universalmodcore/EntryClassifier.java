@@ -0,0 +1,119 @@
+package cam72cam.universalmodcore;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * Decides whether a template entry is text (gets variables substituted) or binary (copied as is).
+ *
+ * Rules from umc.json win, then known extensions, and anything else is sniffed: a NUL byte or invalid UTF-8 in the
+ * first few KB means binary.
+ */
+public class EntryClassifier {
+    public enum Kind {
+        TEXT,
+        BINARY
+    }
+
+    private static final int SNIFF_BYTES = 8192;
+
+    private static final Set<String> TEXT = new HashSet<>(Arrays.asList(
+            "java", "kt", "scala", "groovy", "gradle", "kts", "properties", "json", "json5", "toml", "mcmeta", "cfg",
+            "conf", "txt", "md", "xml", "yml", "yaml", "lang", "info", "mf", "sh", "bat", "cmd", "gitignore",
+            "gitattributes", "editorconfig", "accesswidener", "mixins", "html", "css", "js", "obj", "mtl"
+    ));
+    private static final Set<String> BINARY = new HashSet<>(Arrays.asList(
+            "jar", "zip", "class", "png", "jpg", "jpeg", "gif", "bmp", "ico", "ogg", "wav", "mp3", "nbt", "schematic",
+            "ttf", "otf", "bin", "dat"
+    ));
+
+    private final List<Predicate<String>> text;
+    private final List<Predicate<String>> binary;
+
+    public EntryClassifier(Config.Templates rules) {
+        this.text = matchers(rules.text);
+        this.binary = matchers(rules.binary);
+    }
+
+    /**
+     * Globs with a / match the whole template relative path, others only the file name
+     */
+    private static List<Predicate<String>> matchers(List<String> globs) {
+        return globs.stream()
+                .map(glob -> {
+                    PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+                    return glob.contains("/") ?
+                            (Predicate<String>) path -> matcher.matches(Paths.get(path)) :
+                            (Predicate<String>) path -> matcher.matches(Paths.get(name(path)));
+                })
+                .collect(Collectors.toList());
+    }
+
+    private static String name(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    /**
+     * @param input must support mark/reset, and is left at its original position
+     */
+    public Kind classify(String path, InputStream input) throws IOException {
+        if (text.stream().anyMatch(rule -> rule.test(path))) {
+            return Kind.TEXT;
+        }
+        if (binary.stream().anyMatch(rule -> rule.test(path))) {
+            return Kind.BINARY;
+        }
+
+        String name = name(path);
+        String extension = name.substring(name.lastIndexOf('.') + 1).toLowerCase(Locale.ROOT);
+        if (TEXT.contains(extension)) {
+            return Kind.TEXT;
+        }
+        if (BINARY.contains(extension)) {
+            return Kind.BINARY;
+        }
+        return sniff(input);
+    }
+
+    private static Kind sniff(InputStream input) throws IOException {
+        byte[] head = new byte[SNIFF_BYTES];
+        input.mark(SNIFF_BYTES);
+        int len = 0;
+        try {
+            while (len < head.length) {
+                int read = input.read(head, len, head.length - len);
+                if (read < 0) {
+                    break;
+                }
+                len += read;
+            }
+        } finally {
+            input.reset();
+        }
+
+        for (int i = 0; i < len; i++) {
+            if (head[i] == 0) {
+                return Kind.BINARY;
+            }
+        }
+
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        // Not end of input, so a multi-byte sequence cut off by the sniff window is not an error
+        CoderResult result = decoder.decode(ByteBuffer.wrap(head, 0, len), CharBuffer.allocate(len), len < head.length);
+        return result.isError() ? Kind.BINARY : Kind.TEXT;
+    }
+}
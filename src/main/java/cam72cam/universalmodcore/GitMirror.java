@@ -0,0 +1,97 @@
+package cam72cam.universalmodcore;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.transport.RefSpec;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per user cache of bare repositories, one per remote, shared by every git operation.
+ *
+ * Remotes are keyed by their normalized URL, so https://host/org/repo.git and git@host:org/repo map to the same mirror.
+ * A mirror is brought up to date with an incremental fetch and then used as the local source for clones and fetches.
+ * Access is serialized with a file lock, so concurrent Setup processes on one machine can share the cache.
+ */
+public class GitMirror {
+    private static final Map<Path, GitMirror> SHARED = new ConcurrentHashMap<>();
+    private static final Map<String, Object> LOCKS = new ConcurrentHashMap<>();
+
+    public interface Action<T> {
+        T run(File mirror) throws IOException, GitAPIException;
+    }
+
+    private final Path dir;
+
+    public GitMirror(Path cacheDir) {
+        this.dir = cacheDir.resolve("git");
+    }
+
+    public static GitMirror shared(Path cacheDir) {
+        return SHARED.computeIfAbsent(cacheDir.toAbsolutePath(), GitMirror::new);
+    }
+
+    /**
+     * Fetches branch (or every branch) from uri into the mirror and points the mirror's HEAD at branch, then runs action
+     * on the mirror while still holding the lock.
+     */
+    public <T> T use(String uri, String branch, boolean allBranches, Action<T> action) throws IOException, GitAPIException {
+        String key = key(uri);
+        Files.createDirectories(dir);
+        synchronized (LOCKS.computeIfAbsent(key, k -> new Object())) {
+            try (FileChannel channel = FileChannel.open(dir.resolve(key + ".lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                 FileLock lock = channel.lock()) {
+                File mirror = dir.resolve(key + ".git").toFile();
+                try (Git repo = mirror.exists() ? Git.open(mirror) : Git.init().setBare(true).setDirectory(mirror).call()) {
+                    String refs = allBranches ? "*" : branch;
+                    System.out.println("Updating mirror of " + uri + " (" + refs + ")");
+                    repo.fetch()
+                            .setRemote(uri)
+                            .setRefSpecs(new RefSpec(String.format("+%s%s:%s%s", Constants.R_HEADS, refs, Constants.R_HEADS, refs)))
+                            .call();
+                    // Clones from the mirror need a HEAD which exists
+                    repo.getRepository().updateRef(Constants.HEAD).link(Constants.R_HEADS + branch);
+                }
+                return action.run(mirror);
+            }
+        }
+    }
+
+    /**
+     * Drops the scheme, user, port and .git suffix, and maps scp-like host:path to host/path
+     */
+    public static String normalize(String uri) {
+        String s = uri.trim();
+        boolean scp = !s.contains("://");
+        s = s.replaceFirst("^[a-zA-Z][a-zA-Z0-9+.-]*://", "");
+        s = s.replaceFirst("^[^@/]+@", "");
+        if (scp) {
+            s = s.replaceFirst(":", "/");
+        }
+        s = s.replaceAll("/+$", "").replaceAll("\\.git$", "");
+
+        int slash = s.indexOf('/');
+        if (slash > 0) {
+            s = s.substring(0, slash).replaceFirst(":\\d+$", "").toLowerCase(Locale.ROOT) + s.substring(slash);
+        }
+        return s;
+    }
+
+    private static String key(String uri) {
+        String normalized = normalize(uri);
+        String name = normalized.substring(normalized.lastIndexOf('/') + 1).replaceAll("[^A-Za-z0-9._-]", "_");
+        String hash = Digests.hex(Digests.sha1().digest(normalized.getBytes(StandardCharsets.UTF_8))).substring(0, 12);
+        return name + "-" + hash;
+    }
+}
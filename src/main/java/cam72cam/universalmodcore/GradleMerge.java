@@ -0,0 +1,64 @@
+package cam72cam.universalmodcore;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.*;
+import java.util.function.UnaryOperator;
+import java.util.regex.Pattern;
+
+/**
+ * Merges the user's build.gradle blocks into template.gradle.
+ *
+ * build.gradle is a sequence of blocks, each starting with a //name// marker line.  Wherever template.gradle contains
+ * the same marker line, it is replaced with that block's lines.
+ */
+public class GradleMerge {
+    private static final Pattern MARKER = Pattern.compile("//.*//");
+
+    public static class Result {
+        public final String text;
+        /** Blocks from build.gradle which the template has no marker for */
+        public final List<String> missing;
+        /** Markers which appear more than once in build.gradle (the last block wins) */
+        public final List<String> duplicates;
+
+        Result(String text, List<String> missing, List<String> duplicates) {
+            this.text = text;
+            this.missing = missing;
+            this.duplicates = duplicates;
+        }
+    }
+
+    public static Result merge(BufferedReader build, BufferedReader template, UnaryOperator<String> replace) throws IOException {
+        Map<String, List<String>> parts = new LinkedHashMap<>();
+        List<String> duplicates = new ArrayList<>();
+        List<String> part = null;
+        for (String line = build.readLine(); line != null; line = build.readLine()) {
+            if (MARKER.matcher(line).matches()) {
+                part = new ArrayList<>();
+                if (parts.put(line, part) != null) {
+                    duplicates.add(line);
+                }
+            } else {
+                if (part == null) {
+                    throw new IllegalArgumentException("build.gradle must start with a //block// marker, found: " + line);
+                }
+                part.add(line);
+            }
+        }
+
+        StringBuilder output = new StringBuilder();
+        for (String line = template.readLine(); line != null; line = template.readLine()) {
+            List<String> block = parts.remove(line);
+            if (block != null) {
+                for (String blockLine : block) {
+                    output.append(blockLine).append(System.lineSeparator());
+                }
+            } else {
+                output.append(line).append(System.lineSeparator());
+            }
+        }
+
+        return new Result(replace.apply(output.toString()), new ArrayList<>(parts.keySet()), duplicates);
+    }
+}
@@ -0,0 +1,216 @@
+package cam72cam.universalmodcore;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * On disk cache of downloaded jars.
+ *
+ * Jars are stored by their sha1 under objects/, and refs/ maps a key (loader + version) to that sha1.  The least
+ * recently used objects are evicted once the cache grows past maxBytes.
+ *
+ * Downloads go through objects/<key>.part, so an interrupted download resumes on the next run, and are checked against
+ * the .sha1 published next to the artifact.  The ETag and Last-Modified of each download are kept in refs/<key>.http,
+ * which lets refresh revalidate a cached jar without fetching it again.  Each key is fetched under a file lock
+ * (objects/<key>.lock), so concurrent Setup processes on one machine can share the cache.
+ */
+public class JarCache {
+    private static final Map<String, Object> LOCKS = new ConcurrentHashMap<>();
+
+    private final Path objects;
+    private final Path refs;
+    private final long maxBytes;
+    private final boolean offline;
+    private final boolean refresh;
+    private final Downloader downloader;
+    private volatile boolean deferEviction;
+
+    public JarCache(Path dir, long maxBytes, boolean offline) {
+        this(dir, maxBytes, offline, false, new Downloader(15_000, 30_000, 5, 500));
+    }
+
+    public JarCache(Path dir, long maxBytes, boolean offline, boolean refresh, Downloader downloader) {
+        this.objects = dir.resolve("objects");
+        this.refs = dir.resolve("refs");
+        this.maxBytes = maxBytes;
+        this.offline = offline;
+        this.refresh = refresh;
+        this.downloader = downloader;
+    }
+
+    public static JarCache fromOptions(Options options) {
+        return new JarCache(
+                options.getCacheDir(),
+                options.getLong("cache-max-mb", 1024) * 1024 * 1024,
+                options.has("offline"),
+                options.has("refresh"),
+                Downloader.fromOptions(options)
+        );
+    }
+
+    /**
+     * Holds eviction until evict() is called, so a jar one caller is still reading is not deleted by another's fetch
+     */
+    public void deferEviction() {
+        deferEviction = true;
+    }
+
+    /**
+     * Evicts the least recently used jars past maxBytes
+     */
+    public void evict() throws IOException {
+        if (Files.isDirectory(objects)) {
+            evict(null);
+        }
+    }
+
+    public Path fetch(String url, String key) throws IOException {
+        return fetch(url, key, null);
+    }
+
+    /**
+     * @param tap if not null, is fed the jar while it downloads (see Downloader#download)
+     */
+    public Path fetch(String url, String key, Downloader.Tap tap) throws IOException {
+        // Concurrent targets in one JVM share a single download, and processes sharing the cache take turns on the
+        // key's .part and .validator files
+        synchronized (LOCKS.computeIfAbsent(key, k -> new Object())) {
+            Files.createDirectories(objects);
+            Files.createDirectories(refs);
+            try (FileChannel channel = FileChannel.open(objects.resolve(key + ".lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                 FileLock lock = channel.lock()) {
+                return fetchLocked(url, key, tap);
+            }
+        }
+    }
+
+    private Path fetchLocked(String url, String key, Downloader.Tap tap) throws IOException {
+        Path ref = refs.resolve(key);
+        Path http = refs.resolve(key + ".http");
+        String etag = null;
+        String lastModified = null;
+        if (Files.exists(ref)) {
+            String sha = new String(Files.readAllBytes(ref), StandardCharsets.UTF_8).trim();
+            Path object = objects.resolve(sha + ".jar");
+            if (Files.exists(object)) {
+                if (Digests.sha1(object).equals(sha)) {
+                    if (refresh && !offline && Files.exists(http)) {
+                        JsonObject validators = JsonParser.parseString(new String(Files.readAllBytes(http), StandardCharsets.UTF_8)).getAsJsonObject();
+                        etag = validators.has("etag") ? validators.get("etag").getAsString() : null;
+                        lastModified = validators.has("lastModified") ? validators.get("lastModified").getAsString() : null;
+                    }
+                    if (etag == null && lastModified == null) {
+                        Files.setLastModifiedTime(object, FileTime.fromMillis(System.currentTimeMillis()));
+                        return object;
+                    }
+                } else {
+                    System.out.println("WARNING: Cached " + key + " is corrupt, discarding");
+                    Files.delete(object);
+                }
+            }
+        }
+
+        if (offline) {
+            throw new IOException(String.format("%s is not cached and running offline", key));
+        }
+
+        System.out.println((etag != null || lastModified != null ? "Revalidating " : "Downloading ") + url);
+        Path part = objects.resolve(key + ".part");
+        Downloader.Result result = downloader.download(url, part, etag, lastModified, tap);
+        if (result.notModified) {
+            String sha = new String(Files.readAllBytes(ref), StandardCharsets.UTF_8).trim();
+            Path object = objects.resolve(sha + ".jar");
+            Files.setLastModifiedTime(object, FileTime.fromMillis(System.currentTimeMillis()));
+            return object;
+        }
+
+        String sha = Digests.sha1(part);
+        String expected = downloader.text(url + ".sha1");
+        if (expected == null) {
+            System.out.println("WARNING: No checksum published for " + url);
+        } else if (!expected.trim().split("\\s+")[0].equalsIgnoreCase(sha)) {
+            Files.delete(part);
+            throw new IOException(String.format("Checksum mismatch for %s: expected %s, got %s", url, expected.trim(), sha));
+        }
+        move(part, objects.resolve(sha + ".jar"));
+
+        JsonObject validators = new JsonObject();
+        if (result.etag != null) {
+            validators.addProperty("etag", result.etag);
+        }
+        if (result.lastModified != null) {
+            validators.addProperty("lastModified", result.lastModified);
+        }
+        write(http, validators.toString());
+        write(ref, sha);
+
+        if (!deferEviction) {
+            evict(sha);
+        }
+        return objects.resolve(sha + ".jar");
+    }
+
+    /**
+     * @return the sha1 of jar, read from its name if it is one of this cache's objects (which fetch has verified)
+     */
+    public String digest(Path jar) throws IOException {
+        String name = jar.getFileName().toString();
+        if (jar.toAbsolutePath().getParent().equals(objects.toAbsolutePath()) && name.matches("[0-9a-f]{40}\\.jar")) {
+            return name.substring(0, 40);
+        }
+        return Digests.sha1(jar);
+    }
+
+    private void write(Path path, String text) throws IOException {
+        Path temp = Files.createTempFile(refs, path.getFileName().toString(), ".tmp");
+        Files.write(temp, text.getBytes(StandardCharsets.UTF_8));
+        move(temp, path);
+    }
+
+    private static void move(Path from, Path to) throws IOException {
+        try {
+            Files.move(from, to, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private void evict(String keep) throws IOException {
+        List<Path> byAge;
+        try (Stream<Path> files = Files.list(objects)) {
+            byAge = files.filter(p -> p.toString().endsWith(".jar")).collect(Collectors.toList());
+        }
+        byAge.sort(Comparator.comparing(JarCache::lastModified).reversed());
+
+        long total = 0;
+        for (Path jar : byAge) {
+            total += Files.size(jar);
+            boolean kept = keep != null && jar.getFileName().toString().equals(keep + ".jar");
+            if (total > maxBytes && !kept) {
+                System.out.println("Evicting " + jar + " from cache");
+                Files.deleteIfExists(jar);
+            }
+        }
+    }
+
+    private static FileTime lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package cam72cam.universalmodcore;
+
+import org.eclipse.jgit.api.FetchCommand;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.treewalk.TreeWalk;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Resolves the "latest" UMC version of a branch without a working clone.
+ *
+ * The branch tip is found with ls-remote, and results are memoized per branch and commit.  On a miss only that branch
+ * is read: GitHub remotes serve build.gradle for the commit directly, anything else has the branch fetched into a
+ * persistent bare repository and build.gradle read straight from the commit's tree.
+ */
+public class LatestResolver {
+    private static final Map<Path, LatestResolver> SHARED = new ConcurrentHashMap<>();
+    private static final Map<String, Object> LOCKS = new ConcurrentHashMap<>();
+    private static final Pattern GITHUB = Pattern.compile("^(?:https?://|ssh://git@|git@)github\\.com[:/]([^/]+)/(.+?)(?:\\.git)?/?$");
+
+    private final Path cache;
+    private final Downloader downloader;
+
+    public LatestResolver(Path cacheDir) {
+        this(cacheDir, new Downloader(15_000, 30_000, 3, 500));
+    }
+
+    public LatestResolver(Path cacheDir, Downloader downloader) {
+        this.cache = cacheDir.resolve("latest");
+        this.downloader = downloader;
+    }
+
+    /**
+     * @return a resolver shared by every Config in this JVM using the same cache directory
+     */
+    public static LatestResolver shared(Path cacheDir) {
+        return SHARED.computeIfAbsent(cacheDir.toAbsolutePath(), LatestResolver::new);
+    }
+
+    public String resolve(String uri, String branch) throws IOException {
+        return resolve(uri, branch, null);
+    }
+
+    /**
+     * @param mirror if not null, the branch is fetched through the shared mirror cache instead of a private shallow
+     *               repository
+     */
+    public String resolve(String uri, String branch, GitMirror mirror) throws IOException {
+        // Batch targets on other branches or remotes resolve concurrently
+        synchronized (LOCKS.computeIfAbsent(uri + " " + branch, k -> new Object())) {
+            try {
+                return resolveTip(uri, branch, mirror);
+            } catch (GitAPIException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    private String resolveTip(String uri, String branch, GitMirror mirror) throws IOException, GitAPIException {
+        Ref ref = Git.lsRemoteRepository()
+                .setRemote(uri)
+                .setHeads(true)
+                .callAsMap()
+                .get(Constants.R_HEADS + branch);
+        if (ref == null) {
+            throw new IOException(String.format("Unable to find branch %s in %s", branch, uri));
+        }
+        ObjectId tip = ref.getObjectId();
+
+        Path memo = cache.resolve(branch).resolve(tip.name());
+        if (Files.exists(memo)) {
+            return new String(Files.readAllBytes(memo), StandardCharsets.UTF_8).trim();
+        }
+
+        if (mirror != null) {
+            return mirror.use(uri, branch, false, dir -> {
+                try (Git repo = Git.open(dir)) {
+                    return read(repo, uri, branch);
+                }
+            });
+        }
+
+        String raw = readRaw(uri, branch, tip);
+        if (raw != null) {
+            return raw;
+        }
+
+        File bare = cache.resolve(Digests.hex(Digests.sha1().digest(uri.getBytes(StandardCharsets.UTF_8))) + ".git").toFile();
+        // Branches of one remote share its bare repository
+        synchronized (LOCKS.computeIfAbsent(bare.getPath(), k -> new Object())) {
+            try (Git repo = bare.exists() ? Git.open(bare) : Git.init().setBare(true).setDirectory(bare).call()) {
+                System.out.println("Fetching " + branch + " from " + uri);
+                FetchCommand fetch = repo.fetch()
+                        .setRemote(uri)
+                        .setRefSpecs(new RefSpec(String.format("+%s%s:%s%s", Constants.R_HEADS, branch, Constants.R_HEADS, branch)));
+                if (!Util.setDepth(fetch, 1)) {
+                    System.out.println("WARNING: Shallow fetches need JGit 6.3+ (running " + Util.jgitVersion() + "), fetching the full history of " + branch);
+                }
+                fetch.call();
+                return read(repo, uri, branch);
+            }
+        }
+    }
+
+    /**
+     * GitHub serves single files by commit, which is a few KB instead of a fetch (and, before JGit 6.3, the branch's
+     * whole history).
+     *
+     * @return the version at tip, or null if uri is not on GitHub or the file could not be fetched
+     */
+    private String readRaw(String uri, String branch, ObjectId tip) throws IOException {
+        Matcher github = GITHUB.matcher(uri);
+        if (!github.matches()) {
+            return null;
+        }
+        String url = String.format("https://raw.githubusercontent.com/%s/%s/%s/build.gradle", github.group(1), github.group(2), tip.name());
+        String gradle;
+        try {
+            gradle = downloader.text(url);
+        } catch (IOException e) {
+            System.out.println("WARNING: Unable to read " + url + " (" + e.getMessage() + "), fetching with git");
+            return null;
+        }
+        if (gradle == null) {
+            return null;
+        }
+        String version = umcVersion(gradle.split("\\r?\\n")) + "-" + tip.abbreviate(7).name();
+        return memoize(branch, tip, version);
+    }
+
+    /**
+     * Reads the version from the fetched branch tip, and memoizes it
+     */
+    private String read(Git repo, String uri, String branch) throws IOException {
+        // The branch may have moved since ls-remote
+        ObjectId tip = repo.getRepository().resolve(Constants.R_HEADS + branch);
+
+        String version;
+        try (RevWalk walk = new RevWalk(repo.getRepository()); ObjectReader reader = repo.getRepository().newObjectReader()) {
+            RevCommit commit = walk.parseCommit(tip);
+            TreeWalk tree = TreeWalk.forPath(repo.getRepository(), "build.gradle", commit.getTree());
+            if (tree == null) {
+                throw new IOException(String.format("No build.gradle in %s@%s", uri, branch));
+            }
+            byte[] data = reader.open(tree.getObjectId(0)).getBytes();
+            version = umcVersion(new String(data, StandardCharsets.UTF_8).split("\\r?\\n"));
+            version += "-" + reader.abbreviate(commit, 7).name();
+        }
+        return memoize(branch, tip, version);
+    }
+
+    private String memoize(String branch, ObjectId tip, String version) throws IOException {
+        Path memo = cache.resolve(branch).resolve(tip.name());
+        Files.createDirectories(memo.getParent());
+        Path temp = Files.createTempFile(memo.getParent(), tip.name(), ".tmp");
+        Files.write(temp, version.getBytes(StandardCharsets.UTF_8));
+        Files.move(temp, memo, StandardCopyOption.REPLACE_EXISTING);
+        return version;
+    }
+
+    /**
+     * Reads the version out of UMC's build.gradle
+     */
+    public static String umcVersion(String... lines) {
+        return umcVersion(Arrays.asList(lines));
+    }
+
+    public static String umcVersion(List<String> lines) {
+        return lines.stream()
+                .filter(x -> x.startsWith("String umcVersion = "))
+                .findFirst()
+                .get()
+                .replace("String umcVersion = ", "")
+                .replace("\"", "")
+                .trim();
+    }
+}
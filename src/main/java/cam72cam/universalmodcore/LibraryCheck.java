@@ -0,0 +1,205 @@
+package cam72cam.universalmodcore;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Pre-flight check that every library in mod.libraries for the current loader can actually be resolved, so a broken
+ * repository or a missing jar fails the run in seconds instead of during Gradle's configuration.
+ *
+ * Maven libraries get a HEAD request for their POM (or maven-metadata.xml for snapshots) and flatDir libraries a stat
+ * of their jar, all concurrently.  Artifacts found on a maven repository are remembered under <cache-dir>/libraries
+ * for ttl, misses are always checked again.
+ */
+public class LibraryCheck {
+    private final Path cache;
+    private final long ttl;
+    private final Downloader downloader;
+    private final int threads;
+
+    public static class Result {
+        public final Config.Library library;
+        /** Where the library was looked for */
+        public final String location;
+        public final boolean ok;
+        /** Why the library is not ok, or a warning for a library which could not be verified */
+        public final String message;
+
+        Result(Config.Library library, String location, boolean ok, String message) {
+            this.library = library;
+            this.location = location;
+            this.ok = ok;
+            this.message = message;
+        }
+    }
+
+    public LibraryCheck(Path cacheDir, long ttl, Downloader downloader, int threads) {
+        this.cache = cacheDir.resolve("libraries");
+        this.ttl = ttl;
+        this.downloader = downloader;
+        this.threads = Math.max(threads, 1);
+    }
+
+    public static LibraryCheck fromOptions(Options options) {
+        return new LibraryCheck(
+                options.getCacheDir(),
+                TimeUnit.HOURS.toMillis(options.getLong("check-libraries-ttl-hours", 24)),
+                Downloader.fromOptions(options),
+                (int) options.getLong("check-libraries-threads", 8)
+        );
+    }
+
+    /**
+     * Prints a report of every library which applies to config's loader
+     *
+     * @param root the workspace, which relative flatDir repositories are resolved against
+     * @throws IOException if any library could not be resolved
+     */
+    public void verify(Config config, Path root) throws IOException {
+        List<Config.Library> libraries = new ArrayList<>();
+        for (Config.Library library : config.mod.libraries) {
+            if (library.onlyIn.isEmpty() || library.onlyIn.contains(config.minecraftLoader)) {
+                libraries.add(library);
+            }
+        }
+        if (libraries.isEmpty()) {
+            return;
+        }
+
+        List<Result> results = check(libraries, root);
+        int failed = 0;
+        for (Result result : results) {
+            if (!result.ok) {
+                failed++;
+                System.out.printf("ERROR: Library %s: %s (%s)%n", result.library.id, result.message, result.location);
+            } else if (result.message != null) {
+                System.out.printf("WARNING: Library %s: %s (%s)%n", result.library.id, result.message, result.location);
+            }
+        }
+        if (failed != 0) {
+            throw new IOException(String.format("%d of %d libraries for %s could not be resolved", failed, results.size(), config.minecraftLoader));
+        }
+        System.out.printf("Checked %d libraries%n", results.size());
+    }
+
+    /**
+     * @return a result per library, in order
+     */
+    public List<Result> check(List<Config.Library> libraries, Path root) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, libraries.size()));
+        try {
+            List<Future<Result>> futures = new ArrayList<>();
+            for (Config.Library library : libraries) {
+                futures.add(pool.submit(() -> {
+                    try {
+                        return library.isDir ? checkDir(library, root) : checkMaven(library);
+                    } catch (IllegalArgumentException e) {
+                        // A malformed artifact fails only its own library
+                        return new Result(library, library.repo, false, e.getMessage());
+                    }
+                }));
+            }
+            List<Result> results = new ArrayList<>();
+            for (Future<Result> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while checking libraries", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static class Coordinates {
+        final String group;
+        final String name;
+        final String version;
+        final String classifier;
+        final String extension;
+
+        Coordinates(String id) {
+            String ext = "jar";
+            int at = id.indexOf('@');
+            if (at >= 0) {
+                ext = id.substring(at + 1);
+                id = id.substring(0, at);
+            }
+            String[] parts = id.split(":");
+            if (parts.length < 3 || parts.length > 4) {
+                throw new IllegalArgumentException("Invalid library artifact '" + id + "', expected group:name:version[:classifier]");
+            }
+            this.group = parts[0];
+            this.name = parts[1];
+            this.version = parts[2];
+            this.classifier = parts.length == 4 ? parts[3] : null;
+            this.extension = ext;
+        }
+
+        String file(boolean withVersion) {
+            return name + (withVersion ? "-" + version : "") + (classifier != null ? "-" + classifier : "") + "." + extension;
+        }
+    }
+
+    private Result checkDir(Config.Library library, Path root) {
+        Coordinates coords = new Coordinates(library.id);
+        Path dir = root.resolve(library.repo);
+        if (!Files.isDirectory(dir)) {
+            return new Result(library, dir.toString(), false, "flatDir repository does not exist");
+        }
+        // Gradle's flatDir accepts the jar with or without its version
+        for (boolean withVersion : new boolean[]{true, false}) {
+            if (Files.isRegularFile(dir.resolve(coords.file(withVersion)))) {
+                return new Result(library, dir.resolve(coords.file(withVersion)).toString(), true, null);
+            }
+        }
+        return new Result(library, dir.toString(), false, "neither " + coords.file(true) + " nor " + coords.file(false) + " found");
+    }
+
+    private Result checkMaven(Config.Library library) throws IOException {
+        Coordinates coords = new Coordinates(library.id);
+        String base = library.repo.replaceAll("/+$", "") + "/" + coords.group.replace('.', '/') + "/" + coords.name + "/" + coords.version + "/";
+        String url = base + (coords.version.endsWith("-SNAPSHOT") ? "maven-metadata.xml" : coords.name + "-" + coords.version + ".pom");
+
+        Path marker = cache.resolve(Digests.hex(Digests.sha1().digest(url.getBytes(StandardCharsets.UTF_8))));
+        if (Files.exists(marker) && System.currentTimeMillis() - Files.getLastModifiedTime(marker).toMillis() < ttl) {
+            return new Result(library, url, true, null);
+        }
+
+        int status;
+        try {
+            status = downloader.head(url);
+        } catch (IOException e) {
+            return new Result(library, url, false, "repository unreachable: " + e.getMessage());
+        }
+        if (status == 401 || status == 403) {
+            return new Result(library, url, true, "could not verify, repository requires credentials (HTTP " + status + ")");
+        }
+        if (status == 404 || status == 410) {
+            return new Result(library, url, false, "artifact not found in " + library.repo);
+        }
+        if (status < 200 || status >= 400) {
+            return new Result(library, url, false, "unexpected HTTP " + status);
+        }
+
+        Files.createDirectories(cache);
+        Files.write(marker, url.getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(marker, FileTime.fromMillis(System.currentTimeMillis()));
+        return new Result(library, url, true, null);
+    }
+}
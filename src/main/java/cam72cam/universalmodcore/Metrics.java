@@ -0,0 +1,174 @@
+package cam72cam.universalmodcore;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per phase wall time and I/O counters for a run, written out as a JSON report.
+ *
+ * Disabled unless enable() is called: time() then returns null (which try-with-resources skips) and the counters
+ * return immediately.  Phases with the same name are aggregated, so concurrent batch targets sum their times.  Written
+ * and skipped files count towards the phase timing the current thread, which pool tasks take over with inherit().
+ */
+public class Metrics {
+    private static volatile Metrics active;
+    private static final ThreadLocal<Phase> CURRENT = new ThreadLocal<>();
+
+    private final long start = System.nanoTime();
+    private final Map<String, Phase> phases = new LinkedHashMap<>();
+    private final Map<String, String> failures = new LinkedHashMap<>();
+
+    private static class Phase {
+        final AtomicLong calls = new AtomicLong();
+        final AtomicLong nanos = new AtomicLong();
+        final AtomicLong bytesRead = new AtomicLong();
+        final AtomicLong bytesWritten = new AtomicLong();
+        final AtomicLong filesEmitted = new AtomicLong();
+        final AtomicLong filesSkipped = new AtomicLong();
+    }
+
+    public static class Timer implements AutoCloseable {
+        private final Phase phase;
+        private final Phase outer = CURRENT.get();
+        private final long start = System.nanoTime();
+
+        private Timer(Phase phase) {
+            this.phase = phase;
+            CURRENT.set(phase);
+        }
+
+        @Override
+        public void close() {
+            phase.calls.incrementAndGet();
+            phase.nanos.addAndGet(System.nanoTime() - start);
+            CURRENT.set(outer);
+        }
+    }
+
+    public static void enable() {
+        active = new Metrics();
+    }
+
+    public static boolean isEnabled() {
+        return active != null;
+    }
+
+    public static Timer time(String name) {
+        Metrics metrics = active;
+        return metrics == null ? null : new Timer(metrics.phase(name));
+    }
+
+    public static void read(String name, long bytes) {
+        Metrics metrics = active;
+        if (metrics != null) {
+            metrics.phase(name).bytesRead.addAndGet(bytes);
+        }
+    }
+
+    /**
+     * Counts a file written by the current phase, if any
+     */
+    public static void written(long bytes) {
+        Phase phase = CURRENT.get();
+        if (phase != null) {
+            phase.bytesWritten.addAndGet(bytes);
+            phase.filesEmitted.incrementAndGet();
+        }
+    }
+
+    /**
+     * Counts a file the current phase left unchanged, if any
+     */
+    public static void skipped() {
+        Phase phase = CURRENT.get();
+        if (phase != null) {
+            phase.filesSkipped.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return task, counting towards the phase of the thread calling inherit when it runs on another thread
+     */
+    public static <T> Callable<T> inherit(Callable<T> task) {
+        Phase phase = CURRENT.get();
+        if (phase == null) {
+            return task;
+        }
+        return () -> {
+            Phase outer = CURRENT.get();
+            CURRENT.set(phase);
+            try {
+                return task.call();
+            } finally {
+                CURRENT.set(outer);
+            }
+        };
+    }
+
+    /**
+     * Records that target (a loader branch) failed with error
+     */
+    public static void failed(String target, Throwable error) {
+        Metrics metrics = active;
+        if (metrics != null) {
+            synchronized (metrics) {
+                metrics.failures.put(target, error.toString());
+            }
+        }
+    }
+
+    private synchronized Phase phase(String name) {
+        return phases.computeIfAbsent(name, n -> new Phase());
+    }
+
+    public static void writeReport(Path path) throws IOException {
+        Metrics metrics = active;
+        if (metrics == null) {
+            return;
+        }
+
+        JsonObject report = new JsonObject();
+        report.addProperty("wallMillis", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - metrics.start));
+        JsonArray phases = new JsonArray();
+        JsonArray failures = new JsonArray();
+        synchronized (metrics) {
+            metrics.phases.forEach((name, phase) -> {
+                JsonObject data = new JsonObject();
+                data.addProperty("name", name);
+                data.addProperty("calls", phase.calls.get());
+                data.addProperty("wallMillis", TimeUnit.NANOSECONDS.toMillis(phase.nanos.get()));
+                data.addProperty("bytesRead", phase.bytesRead.get());
+                data.addProperty("bytesWritten", phase.bytesWritten.get());
+                data.addProperty("filesEmitted", phase.filesEmitted.get());
+                data.addProperty("filesSkipped", phase.filesSkipped.get());
+                phases.add(data);
+            });
+            metrics.failures.forEach((target, error) -> {
+                JsonObject data = new JsonObject();
+                data.addProperty("target", target);
+                data.addProperty("error", error);
+                failures.add(data);
+            });
+        }
+        report.addProperty("success", failures.size() == 0);
+        report.add("phases", phases);
+        report.add("failures", failures);
+
+        try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            new GsonBuilder().setPrettyPrinting().create().toJson(report, writer);
+        }
+        System.out.println("Wrote run report to " + path);
+    }
+}
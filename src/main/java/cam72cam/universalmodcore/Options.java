@@ -0,0 +1,49 @@
+package cam72cam.universalmodcore;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Command line arguments: plain positional arguments plus --flag and --key=value options
+ */
+public class Options {
+    public final List<String> positional = new ArrayList<>();
+    private final Map<String, String> flags = new HashMap<>();
+
+    public static Options parse(String[] args) {
+        Options options = new Options();
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                int split = arg.indexOf('=');
+                if (split < 0) {
+                    options.flags.put(arg.substring(2), "true");
+                } else {
+                    options.flags.put(arg.substring(2, split), arg.substring(split + 1));
+                }
+            } else {
+                options.positional.add(arg);
+            }
+        }
+        return options;
+    }
+
+    public boolean has(String flag) {
+        return flags.containsKey(flag) && !flags.get(flag).equals("false");
+    }
+
+    public String get(String flag, String fallback) {
+        return flags.getOrDefault(flag, fallback);
+    }
+
+    public Path getCacheDir() {
+        return Paths.get(get("cache-dir", Paths.get(System.getProperty("user.home"), ".umc", "cache").toString()));
+    }
+
+    public long getLong(String flag, long fallback) {
+        return flags.containsKey(flag) ? Long.parseLong(flags.get(flag)) : fallback;
+    }
+}
@@ -0,0 +1,249 @@
+package cam72cam.universalmodcore;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Remembers how a jar renders for a given set of vars, so identical setups are copied rather than re-rendered.
+ *
+ * A plan (plans/<key>.json) lists every rendered template entry in jar order with the sha1 of its content, and the
+ * content itself is stored once under objects/<sha1>, shared between plans.  The key covers the jar digest, the vars
+ * and the template rules.  The least recently used plans (and the objects only they reference) are evicted once the
+ * objects grow past maxBytes.  Saving and evicting happen under a file lock (render/.lock), so concurrent Setup
+ * processes on one machine can share the cache.
+ */
+public class RenderCache {
+    // Bump whenever rendering changes in a way the key does not capture
+    private static final int FORMAT = 1;
+
+    private final Path dir;
+    private final Path plans;
+    private final Path objects;
+    private final long maxBytes;
+
+    public static class Entry {
+        /** '/' separated, relative to the workspace root */
+        public final String path;
+        public final String sha1;
+        public final boolean executable;
+
+        public Entry(String path, String sha1, boolean executable) {
+            this.path = path;
+            this.sha1 = sha1;
+            this.executable = executable;
+        }
+    }
+
+    public RenderCache(Path dir, long maxBytes) {
+        this.dir = dir;
+        this.plans = dir.resolve("plans");
+        this.objects = dir.resolve("objects");
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return null if disabled with --render-cache=false
+     */
+    public static RenderCache fromOptions(Options options) {
+        if (options.get("render-cache", "true").equals("false")) {
+            return null;
+        }
+        return new RenderCache(options.getCacheDir().resolve("render"), options.getLong("render-cache-max-mb", 256) * 1024 * 1024);
+    }
+
+    /**
+     * @param jarDigest the sha1 of the jar being rendered (see JarCache#digest)
+     */
+    public static String key(String jarDigest, Config config) {
+        MessageDigest digest = Digests.sha1();
+        update(digest, String.valueOf(FORMAT));
+        update(digest, jarDigest);
+        for (Map.Entry<String, String> var : new TreeMap<>(config.getVars()).entrySet()) {
+            update(digest, var.getKey());
+            update(digest, var.getValue());
+        }
+        update(digest, String.join("\n", config.templates.text));
+        update(digest, String.join("\n", config.templates.binary));
+        return Digests.hex(digest.digest());
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        // Length prefixed, so neighbouring values can not run into each other
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        digest.update((bytes.length + ":").getBytes(StandardCharsets.UTF_8));
+        digest.update(bytes);
+    }
+
+    public Path object(String sha1) {
+        return objects.resolve(sha1);
+    }
+
+    /**
+     * @return the plan for key, or null if there is none or any of its objects are missing
+     */
+    public List<Entry> load(String key) throws IOException {
+        Path plan = plans.resolve(key + ".json");
+        List<Entry> entries = read(plan);
+        if (entries == null) {
+            return null;
+        }
+        for (Entry entry : entries) {
+            if (!Files.exists(object(entry.sha1))) {
+                return null;
+            }
+        }
+        Files.setLastModifiedTime(plan, FileTime.fromMillis(System.currentTimeMillis()));
+        return entries;
+    }
+
+    private List<Entry> read(Path plan) throws IOException {
+        if (!Files.exists(plan)) {
+            return null;
+        }
+        List<Entry> entries = new ArrayList<>();
+        try (Reader reader = Files.newBufferedReader(plan, StandardCharsets.UTF_8)) {
+            for (JsonElement element : JsonParser.parseReader(reader).getAsJsonArray()) {
+                JsonObject entry = element.getAsJsonObject();
+                entries.add(new Entry(
+                        entry.get("path").getAsString(),
+                        entry.get("sha1").getAsString(),
+                        entry.has("executable") && entry.get("executable").getAsBoolean()
+                ));
+            }
+        } catch (RuntimeException e) {
+            System.out.println("WARNING: Render plan " + plan + " is unreadable (" + e.getMessage() + "), discarding");
+            Files.deleteIfExists(plan);
+            return null;
+        }
+        return entries;
+    }
+
+    /**
+     * Records rendered (in jar order), taking each file's content from root and its digest from writer
+     */
+    public void save(String key, Path root, List<Path> rendered, WorkspaceWriter writer) throws IOException {
+        // Concurrent targets (in this JVM or another process) must not evict objects another target is saving
+        synchronized (RenderCache.class) {
+            Files.createDirectories(dir);
+            try (FileChannel channel = FileChannel.open(dir.resolve(".lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                 FileLock lock = channel.lock()) {
+                saveLocked(key, root, rendered, writer);
+            }
+        }
+    }
+
+    private void saveLocked(String key, Path root, List<Path> rendered, WorkspaceWriter writer) throws IOException {
+        Files.createDirectories(plans);
+        Files.createDirectories(objects);
+
+        JsonArray entries = new JsonArray();
+        for (Path out : rendered) {
+            String sha1 = writer.getDigest(out);
+            Path object = object(sha1);
+            if (!Files.exists(object)) {
+                Path temp = Files.createTempFile(objects, sha1, ".tmp");
+                try {
+                    Files.copy(out, temp, StandardCopyOption.REPLACE_EXISTING);
+                    move(temp, object);
+                } finally {
+                    Files.deleteIfExists(temp);
+                }
+            }
+
+            JsonObject entry = new JsonObject();
+            entry.addProperty("path", root.relativize(out).toString().replace('\\', '/'));
+            entry.addProperty("sha1", sha1);
+            if (Files.isExecutable(out)) {
+                entry.addProperty("executable", true);
+            }
+            entries.add(entry);
+        }
+
+        Path temp = Files.createTempFile(plans, key, ".tmp");
+        try {
+            try (Writer output = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                output.write(entries.toString());
+            }
+            move(temp, plans.resolve(key + ".json"));
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+
+        evict(key);
+    }
+
+    private static void move(Path from, Path to) throws IOException {
+        try {
+            Files.move(from, to, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Only called from saveLocked, under the render directory's lock
+     */
+    private void evict(String keep) throws IOException {
+        List<Path> byAge;
+        try (Stream<Path> files = Files.list(plans)) {
+            byAge = files.filter(p -> p.toString().endsWith(".json")).collect(Collectors.toList());
+        }
+        byAge.sort(Comparator.comparing(RenderCache::lastModified).reversed());
+
+        // Keep the newest plans whose objects fit, always including the one just saved
+        Set<String> referenced = new HashSet<>();
+        long total = 0;
+        for (Path plan : byAge) {
+            String key = plan.getFileName().toString().replace(".json", "");
+            List<Entry> entries = read(plan);
+            if (entries == null) {
+                continue;
+            }
+            long size = 0;
+            Set<String> added = new HashSet<>();
+            for (Entry entry : entries) {
+                if (!referenced.contains(entry.sha1) && added.add(entry.sha1) && Files.exists(object(entry.sha1))) {
+                    size += Files.size(object(entry.sha1));
+                }
+            }
+            if (total + size > maxBytes && !key.equals(keep)) {
+                System.out.println("Evicting render plan " + key + " from cache");
+                Files.deleteIfExists(plan);
+                continue;
+            }
+            total += size;
+            referenced.addAll(added);
+        }
+
+        try (Stream<Path> files = Files.list(objects)) {
+            for (Path object : files.collect(Collectors.toList())) {
+                if (!referenced.contains(object.getFileName().toString()) && !object.toString().endsWith(".tmp")) {
+                    Files.deleteIfExists(object);
+                }
+            }
+        }
+    }
+
+    private static FileTime lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package cam72cam.universalmodcore;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Substitutes a fixed set of variables in a single left to right pass.
+ *
+ * Keys are compiled into a trie once, and at every position the longest matching key wins.  Unlike repeated
+ * String.replace calls, overlapping keys are resolved left to right and substituted values are never rescanned.
+ */
+public class Replacer {
+    private static class Node {
+        final Map<Character, Node> children = new HashMap<>();
+        final int depth;
+        String name;
+        String value;
+
+        Node(int depth) {
+            this.depth = depth;
+        }
+    }
+
+    private final Node root = new Node(0);
+    private final int maxKeyLength;
+
+    public Replacer(Map<String, String> vars, boolean hash) {
+        int max = 0;
+        for (Map.Entry<String, String> entry : vars.entrySet()) {
+            String key = hash ? String.format("#%s#", entry.getKey()) : entry.getKey();
+            if (key.isEmpty()) {
+                continue;
+            }
+            Node node = root;
+            for (int i = 0; i < key.length(); i++) {
+                int depth = i + 1;
+                node = node.children.computeIfAbsent(key.charAt(i), c -> new Node(depth));
+            }
+            node.name = entry.getKey();
+            node.value = entry.getValue();
+            max = Math.max(max, key.length());
+        }
+        this.maxKeyLength = max;
+    }
+
+    public String apply(String s) {
+        StringBuilder out = null;
+        int copied = 0;
+        int i = 0;
+        while (i < s.length()) {
+            Node matched = match(s, i, s.length());
+            if (matched == null) {
+                i++;
+                continue;
+            }
+            if (out == null) {
+                out = new StringBuilder(s.length() + 64);
+            }
+            out.append(s, copied, i).append(matched.value);
+            i += matched.depth;
+            copied = i;
+        }
+        if (out == null) {
+            return s;
+        }
+        return out.append(s, copied, s.length()).toString();
+    }
+
+    /**
+     * Streams in to out, only ever holding one buffer plus enough carry over for a key split across reads.
+     */
+    public void apply(Reader in, Writer out) throws IOException {
+        apply(in, out, null);
+    }
+
+    /**
+     * @param used if not null, collects the names of every variable substituted
+     */
+    public void apply(Reader in, Writer out, Set<String> used) throws IOException {
+        char[] buf = new char[8192 + maxKeyLength];
+        CharBuffer view = CharBuffer.wrap(buf);
+        int len = 0;
+        boolean eof = false;
+        while (!eof || len > 0) {
+            while (!eof && len < buf.length) {
+                int read = in.read(buf, len, buf.length - len);
+                if (read < 0) {
+                    eof = true;
+                } else {
+                    len += read;
+                }
+            }
+
+            // Any key starting before limit fits entirely in the buffer
+            int limit = eof ? len : len - Math.max(maxKeyLength - 1, 0);
+            int copied = 0;
+            int i = 0;
+            while (i < limit) {
+                Node matched = match(view, i, len);
+                if (matched == null) {
+                    i++;
+                    continue;
+                }
+                out.write(buf, copied, i - copied);
+                out.write(matched.value);
+                if (used != null) {
+                    used.add(matched.name);
+                }
+                i += matched.depth;
+                copied = i;
+            }
+            out.write(buf, copied, i - copied);
+
+            System.arraycopy(buf, i, buf, 0, len - i);
+            len -= i;
+        }
+    }
+
+    /**
+     * @return the node of the longest key starting at start, or null if none does
+     */
+    private Node match(CharSequence s, int start, int end) {
+        Node node = root;
+        Node matched = null;
+        for (int i = start; i < end; i++) {
+            node = node.children.get(s.charAt(i));
+            if (node == null) {
+                break;
+            }
+            if (node.value != null) {
+                matched = node;
+            }
+        }
+        return matched;
+    }
+}
@@ -2,136 +2,205 @@ package cam72cam.universalmodcore;
 
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
-import org.eclipse.jgit.api.errors.GitAPIException;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
 
 public class Setup {
-    public static void main(String[] args) throws IOException, GitAPIException {
-        JsonObject configObj = JsonParser.parseReader(
-                new InputStreamReader(new ByteArrayInputStream(
-                        Files.readAllBytes(Paths.get("umc.json"))
-                ))
-        ).getAsJsonObject();
+    /** The loader branch argument is malformed or names an unsupported minecraft version */
+    public static class InvalidBranchException extends IllegalArgumentException {
+        private static final long serialVersionUID = 1L;
+
+        InvalidBranchException(String message) {
+            super(message);
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        JsonObject configObj = readConfig();
+
+        Options options = Options.parse(args);
+        args = options.positional.toArray(new String[0]);
+        if (options.has("report")) {
+            Metrics.enable();
+        }
 
         if (args.length == 0) {
             System.err.println("No loader branch specified! Available branches can be found in the UniversalModCore GitHub repository.");
             return;
         }
-        String loaderBranch = args[0];
+
+        // A failed run is the one most worth a report
+        try {
+            Config config;
+            try {
+                config = createConfig(configObj, args[0], options);
+            } catch (InvalidBranchException e) {
+                System.err.println(e.getMessage());
+                Metrics.failed(args[0], e);
+                return;
+            }
+
+            Boolean useSSH = args.length != 2 ? null : !args[1].equals("https");
+            if (options.has("watch")) {
+                new Watcher(args[0], Paths.get(System.getProperty("user.dir")), options, JarCache.fromOptions(options), useSSH).run(config);
+                return;
+            }
+            Path root = Paths.get(System.getProperty("user.dir"));
+            generate(config, root, readBuild(root), options, JarCache.fromOptions(options), useSSH);
+        } catch (Exception e) {
+            Metrics.failed(args[0], e);
+            throw e;
+        } finally {
+            writeReport(options);
+        }
+    }
+
+    /**
+     * --report writes umc-report.json, --report=path writes to path
+     */
+    public static void writeReport(Options options) throws IOException {
+        if (options.has("report")) {
+            String path = options.get("report", "true");
+            Metrics.writeReport(Paths.get(path.equals("true") ? "umc-report.json" : path));
+        }
+    }
+
+    public static JsonObject readConfig() throws IOException {
+        return JsonParser.parseReader(
+                new InputStreamReader(new ByteArrayInputStream(
+                        Files.readAllBytes(Paths.get("umc.json"))
+                ))
+        ).getAsJsonObject();
+    }
+
+    public static Config createConfig(JsonObject configObj, String loaderBranch, Options options) throws IOException {
         String[] split = loaderBranch.split("-");
         if (split.length < 2) {
-            System.err.println("Invalid loader branch! It should be in the format '<minecraft-version>-<loader>'. For example, '1.12.2-forge'.");
-            return;
+            throw new InvalidBranchException("Invalid loader branch! It should be in the format '<minecraft-version>-<loader>'. For example, '1.12.2-forge'.");
         }
         String version = split[0];
         Loader brand = Loader.parse(split[1]);
-        if (!isValidVersion(version)) {
-            return;
-        }
-
-        Config config = new Config(configObj, version, brand);
-
-        ZipInputStream zip = new ZipInputStream(config.openJarStream());
-        for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
-            String path = entry.getName();
-            if (path.startsWith("template") && !path.endsWith(File.separator)) {
-                InputStream input = zip;
-                if (!path.endsWith(".jar")) {
-                    input = config.replaceAll(input, true);
-                }
+        validateVersion(version);
 
-                if (path.endsWith("/")) {
-                    continue;
-                }
-
-                if (path.endsWith("gradle-wrapper.jar")) {
-                    // TODO removeme windows hack
-                    continue;
-                }
+        try (Metrics.Timer timer = Metrics.time("config")) {
+            return new Config(configObj, version, brand, options);
+        }
+    }
 
-                path = path.replace("template/", "");
+    /**
+     * Reads the user's build.gradle blocks, before generate overwrites the file
+     */
+    public static String readBuild(Path dir) throws IOException {
+        return new String(Files.readAllBytes(dir.resolve("build.gradle")), StandardCharsets.UTF_8);
+    }
 
-                Path out = Paths.get(System.getProperty("user.dir"), config.replace(path, false));
-                System.out.println(out);
+    /**
+     * @param build the user's build.gradle blocks (see readBuild), merged into the generated build.gradle
+     */
+    public static void generate(Config config, Path root, String build, Options options, JarCache cache, Boolean useSSH) throws IOException {
+        if (options.has("check-libraries")) {
+            try (Metrics.Timer timer = Metrics.time("libraries")) {
+                LibraryCheck.fromOptions(options).verify(config, root);
+            }
+        }
 
-                out.getParent().toFile().mkdirs();
+        WorkspaceWriter writer = new WorkspaceWriter(root, options.has("force"));
+        TemplateExtractor extractor = new TemplateExtractor(config, root, writer, (int) options.getLong("threads", Runtime.getRuntime().availableProcessors()));
+        // A cold download renders templates as the jar arrives, unless --pipeline=false
+        try (TemplateExtractor.Pipeline pipeline = options.get("pipeline", "true").equals("false") ? null : extractor.pipeline()) {
+            Path jar;
+            try (Metrics.Timer timer = Metrics.time("jar")) {
+                jar = config.getJar(cache, pipeline);
+            }
 
-                out.toFile().delete();
-                Files.copy(input, out);
-                if (out.toString().equals("./gradlew")) {
-                    out.toFile().setExecutable(true);
+            // Identical jar and vars are copied from the render cache, unless --render-cache=false
+            RenderCache renders = RenderCache.fromOptions(options);
+            String key = renders == null ? null : RenderCache.key(cache.digest(jar), config);
+            boolean cached = false;
+            try (Metrics.Timer timer = Metrics.time("extract")) {
+                // The jar is verified by now, so the pipeline's renders can be written
+                if (pipeline == null || !pipeline.commit()) {
+                    List<RenderCache.Entry> plan = renders == null ? null : renders.load(key);
+                    if (plan != null) {
+                        try {
+                            extractor.extract(plan, renders);
+                            cached = true;
+                        } catch (NoSuchFileException e) {
+                            System.out.println("WARNING: Render cache entry " + e.getFile() + " disappeared, rendering the jar");
+                        }
+                    }
+                    if (!cached) {
+                        extractor.extract(jar);
+                    }
                 }
             }
-        }
-
-        Path buildGradle = Paths.get(System.getProperty("user.dir"), "build.gradle");
-        List<String> build = Files.readAllLines(buildGradle);
-        Map<String, List<String>> parts = new HashMap<>();
-        List<String> part = null;
-        for (String line : build) {
-            if (line.matches("//.*//")) {
-                part = new ArrayList<>();
-                parts.put(line, part);
-            } else {
-                // should NPE if bork'd build.gradle
-                part.add(line);
+            if (renders != null && !cached) {
+                renders.save(key, root, extractor.getRendered(), writer);
             }
         }
 
-        List<String> template = Files.readAllLines(Paths.get(System.getProperty("user.dir"), "template.gradle"));
-        List<String> output = new ArrayList<>();
-        for (String line : template) {
-            if (parts.containsKey(line)) {
-                output.addAll(parts.get(line));
-                parts.remove(line);
-            } else {
-                output.add(line);
-            }
+        merge(config, root, writer, build);
+        writer.finish(options.has("prune"));
+
+        integrate(config, root, options, useSSH);
+    }
+
+    /**
+     * Merges the user's build.gradle blocks (build) into the extracted template.gradle, and writes build.gradle
+     */
+    public static void merge(Config config, Path root, WorkspaceWriter writer, String build) throws IOException {
+        GradleMerge.Result merged;
+        try (Metrics.Timer timer = Metrics.time("merge");
+             BufferedReader template = Files.newBufferedReader(root.resolve("template.gradle"), StandardCharsets.UTF_8)) {
+            merged = GradleMerge.merge(new BufferedReader(new StringReader(build)), template, config::replace);
+            writer.write(root.resolve("build.gradle"), out -> out.write(merged.text.getBytes(StandardCharsets.UTF_8)));
         }
-        Files.write(buildGradle, output.stream().map(config::replace).collect(Collectors.toList()));
 
-        for (String key : parts.keySet()) {
+        for (String key : merged.duplicates) {
+            System.out.printf("WARNING: Duplicate block %s in build.gradle, only the last one is used%n", key);
+        }
+        for (String key : merged.missing) {
             System.out.printf("WARNING: Missing template block %s!  Build is likely broken%n", key);
         }
+    }
 
+    public static void integrate(Config config, Path root, Options options, Boolean useSSH) throws IOException {
         if (config.integration != null) {
-            Util.gitClone(
-                    config.integration.repo,
-                    String.format(config.integration.branch, config.minecraftLoader),
-                    Paths.get(System.getProperty("user.dir"), config.integration.path).toFile(),
-                    args.length != 2 ? null : !args[1].equals("https")
-            );
+            try (Metrics.Timer timer = Metrics.time("integration")) {
+                Util.gitClone(
+                        config.integration.repo,
+                        String.format(config.integration.branch, config.minecraftLoader),
+                        root.resolve(config.integration.path).toFile(),
+                        useSSH,
+                        config.git.clone,
+                        config.git.depth,
+                        config.git.mirror ? GitMirror.shared(options.getCacheDir()) : null,
+                        config.integration.isSparse() ? config.integration::wants : null
+                );
+            }
         }
     }
 
-    private static boolean isValidVersion(String version) {
+    private static void validateVersion(String version) {
         String intermediary = version;
 
         if (intermediary.startsWith("1.")) {
             intermediary = intermediary.substring(2);
             // Up to 1.21
             if (!intermediary.matches("([7-9]|1[0-9]|20|21)(\\.\\d+)*")) {
-                System.err.println("Invalid minecraft version: " + version + ", it should be 1.xx.xx for 1.21.11 and below, and above or equals to 1.7.10");
-                return false;
+                throw new InvalidBranchException("Invalid minecraft version: " + version + ", it should be 1.xx.xx for 1.21.11 and below, and above or equals to 1.7.10");
             }
         } else {
             //Start from 26.1
             if (!intermediary.matches("(2[6-9]|[3-9]\\d)(\\.\\d+)+")) {
-                System.err.println("Invalid minecraft version: " + version + ", it should be xx.x for 26.1 and up");
-                return false;
+                throw new InvalidBranchException("Invalid minecraft version: " + version + ", it should be xx.x for 26.1 and up");
             }
         }
-        return true;
     }
 }
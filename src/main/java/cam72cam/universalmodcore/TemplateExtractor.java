@@ -0,0 +1,400 @@
+package cam72cam.universalmodcore;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Renders the template/ entries of a UMC jar into a workspace.
+ *
+ * Only the template entries are read (via the zip central directory), and they are rendered on a bounded pool.
+ * Paths are still printed in jar order, and the first failure aborts the remaining work.  A Pipeline instead renders
+ * the jar straight from its download.
+ */
+public class TemplateExtractor {
+    private final Config config;
+    private final Path root;
+    private final WorkspaceWriter writer;
+    private final EntryClassifier classifier;
+    private final int threads;
+    private final List<Path> rendered = new ArrayList<>();
+
+    public TemplateExtractor(Config config, Path root, WorkspaceWriter writer, int threads) {
+        this.config = config;
+        this.root = root;
+        this.writer = writer;
+        this.classifier = new EntryClassifier(config.templates);
+        this.threads = Math.max(threads, 1);
+    }
+
+    public void extract(Path jar) throws IOException {
+        try (ZipFile zip = new ZipFile(jar.toFile())) {
+            extract(zip, name -> true, null);
+        }
+    }
+
+    /**
+     * @param filter which template entries (by jar path) to render
+     * @param usage if not null, collects the variables each rendered entry depends on, keyed by jar path
+     */
+    public void extract(ZipFile zip, Predicate<String> filter, Map<String, Set<String>> usage) throws IOException {
+        List<ZipEntry> entries = zip.stream()
+                .filter(entry -> isTemplate(entry) && filter.test(entry.getName()))
+                .collect(Collectors.toList());
+
+        try (Ordered ordered = new Ordered()) {
+            for (ZipEntry entry : entries) {
+                ordered.submit(() -> {
+                    Metrics.read("extract", entry.getCompressedSize());
+                    return write(entry.getName(), () -> zip.getInputStream(entry), usage);
+                });
+            }
+            ordered.finish();
+        }
+    }
+
+    /**
+     * Writes a cached render plan instead of rendering the jar
+     */
+    public void extract(List<RenderCache.Entry> plan, RenderCache cache) throws IOException {
+        try (Ordered ordered = new Ordered()) {
+            for (RenderCache.Entry entry : plan) {
+                ordered.submit(() -> {
+                    Path out = root.resolve(entry.path);
+                    writer.write(out, output -> Files.copy(cache.object(entry.sha1), output));
+                    if (entry.executable) {
+                        out.toFile().setExecutable(true);
+                    }
+                    return out;
+                });
+            }
+            ordered.finish();
+        }
+    }
+
+    /**
+     * @return every path written so far, in jar order
+     */
+    public List<Path> getRendered() {
+        return rendered;
+    }
+
+    /**
+     * Renders the jar while it is still arriving.  The download thread only copies each template entry from the stream
+     * into a staging directory and queues it, so memory stays flat and the network read never waits on rendering.  The
+     * pool renders the staged entries alongside the download, but nothing reaches the workspace until commit(), which
+     * the caller invokes once the jar has been verified.
+     *
+     * Every attempt which restarts the download from its first byte is fed again and replaces what earlier attempts
+     * staged, so the renders always come from the bytes the verified jar starts with (later attempts only resume it).
+     * If commit() returns false (cache hits, downloads resumed from a previous run, and jars ZipInputStream can not
+     * stream), call extract(jar) instead.
+     */
+    public class Pipeline implements Downloader.Tap, AutoCloseable {
+        private final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        private final List<String> names = new ArrayList<>();
+        private final List<Future<Path>> renders = new ArrayList<>();
+        private Path staging;
+        private boolean completed;
+
+        private Pipeline() {
+        }
+
+        /**
+         * @throws IOException if reading the download failed, which fails the attempt for Downloader to retry
+         */
+        @Override
+        public void accept(InputStream input) throws IOException {
+            discard();
+            Download download = new Download(input);
+            try {
+                Files.createDirectories(root.resolve(".umc"));
+                staging = Files.createTempDirectory(root.resolve(".umc"), "staging");
+                // Not closed, the download owns input
+                ZipInputStream zip = new ZipInputStream(download);
+                ZipEntry entry;
+                while ((entry = zip.getNextEntry()) != null) {
+                    if (!isTemplate(entry)) {
+                        continue;
+                    }
+                    String name = entry.getName();
+                    Path raw = staging.resolve(names.size() + ".raw");
+                    Path rendered = staging.resolve(names.size() + ".out");
+                    Files.copy(zip, raw);
+                    long compressed = entry.getCompressedSize();
+                    names.add(name);
+                    renders.add(pool.submit(() -> {
+                        Metrics.read("extract", compressed < 0 ? Files.size(raw) : compressed);
+                        try (OutputStream output = Files.newOutputStream(rendered)) {
+                            render(name.replace("template/", ""), () -> Files.newInputStream(raw), output, null);
+                        }
+                        Files.delete(raw);
+                        return rendered;
+                    }));
+                }
+                completed = true;
+            } catch (IOException e) {
+                if (download.failed) {
+                    throw e;
+                }
+                if (e instanceof EOFException) {
+                    System.out.println("WARNING: The jar ended before its last entry (" + e + "), extracting from the downloaded jar");
+                } else if (e instanceof ZipException) {
+                    System.out.println("WARNING: The jar can not be streamed (" + e + "), extracting from the downloaded jar");
+                } else {
+                    System.out.println("WARNING: Staging templates failed (" + e + "), extracting from the downloaded jar");
+                }
+            } catch (RuntimeException e) {
+                System.out.println("WARNING: Extracting while downloading failed (" + e + "), extracting from the downloaded jar");
+            }
+        }
+
+        /**
+         * Drops whatever an earlier attempt staged
+         */
+        private void discard() throws IOException {
+            completed = false;
+            for (Future<Path> render : renders) {
+                render.cancel(false);
+            }
+            for (Future<Path> render : renders) {
+                try {
+                    // Running renders would write into the directory being deleted
+                    render.get();
+                } catch (CancellationException | ExecutionException e) {
+                    // Discarded either way
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while discarding staged templates", e);
+                }
+            }
+            names.clear();
+            renders.clear();
+            if (staging != null) {
+                FileUtils.deleteDirectory(staging.toFile());
+                staging = null;
+            }
+        }
+
+        /**
+         * Writes the staged renders into the workspace, in jar order
+         *
+         * @return false if the jar was not streamed, and has to be extracted instead
+         */
+        public boolean commit() throws IOException {
+            if (!completed) {
+                return false;
+            }
+            try (Ordered ordered = new Ordered()) {
+                for (int i = 0; i < names.size(); i++) {
+                    String name = names.get(i);
+                    Future<Path> render = renders.get(i);
+                    ordered.submit(() -> write(name, render.get()));
+                }
+                ordered.finish();
+            }
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            pool.shutdownNow();
+            try {
+                // Renders still running would write into the directory being deleted
+                pool.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (staging != null) {
+                FileUtils.deleteDirectory(staging.toFile());
+            }
+        }
+    }
+
+    /**
+     * Remembers whether reading the download itself failed, as opposed to parsing or staging what it delivered
+     */
+    private static class Download extends FilterInputStream {
+        boolean failed;
+
+        Download(InputStream input) {
+            super(input);
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                return super.read();
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            try {
+                return super.read(b, off, len);
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+        }
+    }
+
+    public Pipeline pipeline() {
+        return new Pipeline();
+    }
+
+    private static boolean isTemplate(ZipEntry entry) {
+        return entry.getName().startsWith("template/") && !entry.isDirectory()
+                // TODO removeme windows hack
+                && !entry.getName().endsWith("gradle-wrapper.jar");
+    }
+
+    /**
+     * Renders on the pool with at most a few entries queued per thread, printing paths in submission order and
+     * aborting on the first failure.
+     */
+    private class Ordered implements AutoCloseable {
+        private final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        private final CompletionService<Integer> completion = new ExecutorCompletionService<>(pool);
+        private final Semaphore queued = new Semaphore(threads * 4);
+        private final Map<Integer, Path> done = new HashMap<>();
+        private final Map<Integer, Path> written = new ConcurrentHashMap<>();
+        private int submitted;
+        private int finished;
+        private int next;
+
+        Ordered() {
+            rendered.clear();
+        }
+
+        void submit(Callable<Path> task) throws IOException {
+            int index = submitted++;
+            // Files written on the pool count towards the submitting thread's phase
+            Callable<Path> timed = Metrics.inherit(task);
+            try {
+                queued.acquire();
+                completion.submit(() -> {
+                    try {
+                        written.put(index, timed.call());
+                        return index;
+                    } finally {
+                        queued.release();
+                    }
+                });
+                Future<Integer> result;
+                while ((result = completion.poll()) != null) {
+                    print(result);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while extracting templates", e);
+            }
+        }
+
+        void finish() throws IOException {
+            try {
+                while (finished < submitted) {
+                    print(completion.take());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while extracting templates", e);
+            }
+        }
+
+        private void print(Future<Integer> result) throws IOException, InterruptedException {
+            finished++;
+            int index;
+            try {
+                index = result.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            }
+            done.put(index, written.remove(index));
+            while (done.containsKey(next)) {
+                Path out = done.remove(next);
+                System.out.println(out);
+                rendered.add(out);
+                next++;
+            }
+        }
+
+        @Override
+        public void close() {
+            pool.shutdownNow();
+        }
+    }
+
+    private interface Source {
+        InputStream open() throws IOException;
+    }
+
+    private Path write(String name, Source source, Map<String, Set<String>> usage) throws IOException {
+        String path = name.replace("template/", "");
+        Set<String> used = usage == null ? null : new HashSet<>();
+        Path out = root.resolve(used == null ? config.replace(path, false) : config.replace(path, false, used));
+
+        writer.write(out, output -> render(path, source, output, used));
+        if (usage != null) {
+            usage.put(name, used);
+        }
+        return executable(path, out);
+    }
+
+    /**
+     * Writes an entry the pipeline already rendered
+     */
+    private Path write(String name, Path rendered) throws IOException {
+        String path = name.replace("template/", "");
+        Path out = root.resolve(config.replace(path, false));
+        writer.write(out, output -> Files.copy(rendered, output));
+        return executable(path, out);
+    }
+
+    private void render(String path, Source source, OutputStream output, Set<String> used) throws IOException {
+        try (InputStream input = new BufferedInputStream(source.open(), 64 * 1024)) {
+            if (classifier.classify(path, input) == EntryClassifier.Kind.BINARY) {
+                IOUtils.copy(input, output);
+            } else {
+                config.replaceAll(input, output, true, used);
+            }
+        }
+    }
+
+    private static Path executable(String path, Path out) {
+        if (path.equals("gradlew")) {
+            out.toFile().setExecutable(true);
+        }
+        return out;
+    }
+}
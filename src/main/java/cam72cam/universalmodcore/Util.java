@@ -1,16 +1,53 @@
 package cam72cam.universalmodcore;
 
 import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.CloneCommand;
 import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.ResetCommand;
+import org.eclipse.jgit.api.TransportCommand;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.api.errors.TransportException;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectLoader;
 import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
 import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.treewalk.TreeWalk;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Predicate;
 
+/**
+ * All JGit usage lives here (and in LatestResolver), so runs which never touch git never load JGit.  GitAPIExceptions
+ * are wrapped in IOExceptions rather than leaking into the signatures of Setup/Config, where resolving the main method
+ * would load them.
+ */
 public class Util {
-    public static String gitRevision(File path) throws IOException, GitAPIException {
+    public static String gitRevision(File path) throws IOException {
+        try (Metrics.Timer timer = Metrics.time("git-revision")) {
+            return revision(path);
+        } catch (GitAPIException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static String revision(File path) throws IOException, GitAPIException {
         Git repo = Git.open(path);
         RevCommit commit = repo.log().setMaxCount(1).call().iterator().next();
         String name = repo.getRepository().newObjectReader().abbreviate(commit, 7).name();
@@ -18,7 +55,34 @@ public class Util {
         return name;
     }
 
-    public static void gitClone(String repository, String branch, File clonePath, Boolean useSSH) throws IOException, GitAPIException {
+    public static void gitClone(String repository, String branch, File clonePath, Boolean useSSH) throws IOException {
+        gitClone(repository, branch, clonePath, useSSH, CloneMode.FULL, 0);
+    }
+
+    public static void gitClone(String repository, String branch, File clonePath, Boolean useSSH, CloneMode mode, int depth) throws IOException {
+        gitClone(repository, branch, clonePath, useSSH, mode, depth, null);
+    }
+
+    /**
+     * @param mirror if not null, the remote is fetched into this mirror cache, and the checkout is cloned/updated from it
+     */
+    public static void gitClone(String repository, String branch, File clonePath, Boolean useSSH, CloneMode mode, int depth, GitMirror mirror) throws IOException {
+        gitClone(repository, branch, clonePath, useSSH, mode, depth, mirror, null);
+    }
+
+    /**
+     * @param paths if not null, only repository paths ('/' separated) it accepts are written to the work tree.  The
+     *              rest stay in the index flagged assume-valid, so the checkout does not look modified.
+     */
+    public static void gitClone(String repository, String branch, File clonePath, Boolean useSSH, CloneMode mode, int depth, GitMirror mirror, Predicate<String> paths) throws IOException {
+        try (Metrics.Timer timer = Metrics.time("git-clone")) {
+            clone(repository, branch, clonePath, useSSH, mode, depth, mirror, paths);
+        } catch (GitAPIException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static void clone(String repository, String branch, File clonePath, Boolean useSSH, CloneMode mode, int depth, GitMirror mirror, Predicate<String> paths) throws IOException, GitAPIException {
         String uri = repository;
 
         boolean wantsHttp = useSSH != null && !useSSH;
@@ -36,27 +100,268 @@ public class Util {
             uri = uri.replaceFirst("git@", "https://");
         }
 
+        if (mirror == null) {
+            cloneFrom(uri, uri, branch, clonePath, mode, depth, paths);
+        } else {
+            String remote = uri;
+            mirror.use(uri, branch, mode == CloneMode.FULL, source -> {
+                cloneFrom(source.toURI().toString(), remote, branch, clonePath, mode, depth, paths);
+                return null;
+            });
+        }
+    }
+
+    /**
+     * Clones (or updates) clonePath from source, with origin pointing at uri
+     */
+    private static void cloneFrom(String source, String uri, String branch, File clonePath, CloneMode mode, int depth, Predicate<String> paths) throws IOException, GitAPIException {
         if (clonePath.exists()) {
+            if (update(source, uri, branch, clonePath, paths)) {
+                return;
+            }
             System.out.println("Removing " + clonePath);
             FileUtils.deleteDirectory(clonePath);
         }
 
         clonePath.mkdirs();
 
-        System.out.println("Cloning " + uri + " into " + clonePath);
-
+        System.out.println("Cloning " + source + " into " + clonePath + " (" + mode + ")");
 
-        try (Git repo = Git.cloneRepository()
+        CloneCommand clone = Git.cloneRepository()
                 .setDirectory(clonePath)
-                .setURI(uri)
-                .setNoCheckout(true)
-                .setCloneAllBranches(true)
-                .call()) {
+                .setURI(source)
+                .setNoCheckout(true);
+        boolean shallow = false;
+        if (mode == CloneMode.FULL) {
+            clone.setCloneAllBranches(true);
+        } else {
+            clone.setCloneAllBranches(false)
+                    .setBranchesToClone(Collections.singleton(Constants.R_HEADS + branch))
+                    .setBranch(Constants.R_HEADS + branch);
+            if (mode == CloneMode.SHALLOW && depth > 0) {
+                shallow = setDepth(clone, depth);
+                if (!shallow) {
+                    System.out.println("WARNING: Shallow clones need JGit 6.3+ (running " + jgitVersion() + "), fetching the full history of " + branch);
+                }
+            }
+        }
+
+        Git cloned;
+        try {
+            cloned = clone.call();
+        } catch (TransportException e) {
+            if (!shallow) {
+                throw e;
+            }
+            System.out.println("Shallow clone failed (" + e.getMessage() + "), fetching the full branch");
+            cloneFrom(source, uri, branch, clonePath, CloneMode.BRANCH, 0, paths);
+            return;
+        }
+
+        try (Git repo = cloned) {
+            if (!source.equals(uri)) {
+                StoredConfig config = repo.getRepository().getConfig();
+                config.setString("remote", "origin", "url", uri);
+                config.save();
+            }
+
+            if (paths != null) {
+                sparseCheckout(repo, branch, paths);
+                return;
+            }
+
+            // Single branch clones may already have created the local branch
+            boolean exists = repo.getRepository().findRef(Constants.R_HEADS + branch) != null;
             repo.checkout()
-                    .setCreateBranch(true)
+                    .setCreateBranch(!exists)
                     .setName(branch)
                     .setStartPoint("origin/" + branch)
                     .call();
         }
     }
+
+    /**
+     * Brings an existing checkout of uri up to date with the remote branch, discarding local changes like a fresh
+     * clone would.
+     *
+     * @return false if the checkout is for a different remote or is unusable and should be recloned
+     */
+    private static boolean update(String source, String uri, String branch, File clonePath, Predicate<String> paths) {
+        if (!new File(clonePath, Constants.DOT_GIT).exists()) {
+            return false;
+        }
+        try (Git repo = Git.open(clonePath)) {
+            String remote = repo.getRepository().getConfig().getString("remote", "origin", "url");
+            if (!uri.equals(remote)) {
+                System.out.println("Existing checkout " + clonePath + " points at " + remote + ", recloning");
+                return false;
+            }
+            if (repo.getRepository().getConfig().getBoolean("umc", "sparse", false) != (paths != null)) {
+                System.out.println("Existing checkout " + clonePath + " is " + (paths != null ? "complete" : "sparse") + ", recloning");
+                return false;
+            }
+
+            System.out.println("Updating " + clonePath + " from " + source);
+            repo.fetch()
+                    .setRemote(source.equals(uri) ? "origin" : source)
+                    .setRefSpecs(new RefSpec(String.format("+%s%s:%sorigin/%s", Constants.R_HEADS, branch, Constants.R_REMOTES, branch)))
+                    .call();
+
+            if (paths != null) {
+                sparseCheckout(repo, branch, paths);
+                return true;
+            }
+
+            repo.reset().setMode(ResetCommand.ResetType.HARD).call();
+            boolean exists = repo.getRepository().findRef(Constants.R_HEADS + branch) != null;
+            repo.checkout()
+                    .setCreateBranch(!exists)
+                    .setName(branch)
+                    .setStartPoint("origin/" + branch)
+                    .call();
+            repo.reset().setMode(ResetCommand.ResetType.HARD).setRef("origin/" + branch).call();
+            repo.clean().setCleanDirectories(true).call();
+            return true;
+        } catch (IOException | GitAPIException | RuntimeException e) {
+            System.out.println("Unable to update " + clonePath + " (" + e.getMessage() + "), recloning");
+            return false;
+        }
+    }
+
+    /**
+     * Points branch (and HEAD) at origin/branch, then writes only the wanted paths of its tree.  JGit has no sparse
+     * checkout, so unwanted entries are kept in the index with assume-valid set instead of skip-worktree.  Work tree
+     * files which are not wanted (or no longer tracked) are removed.
+     */
+    private static void sparseCheckout(Git repo, String branch, Predicate<String> paths) throws IOException {
+        Repository repository = repo.getRepository();
+        Ref remote = repository.exactRef(Constants.R_REMOTES + "origin/" + branch);
+        if (remote == null) {
+            throw new IOException("Remote branch " + branch + " not found");
+        }
+
+        RefUpdate head = repository.updateRef(Constants.R_HEADS + branch);
+        head.setNewObjectId(remote.getObjectId());
+        head.forceUpdate();
+        repository.updateRef(Constants.HEAD).link(Constants.R_HEADS + branch);
+
+        StoredConfig config = repository.getConfig();
+        config.setString("branch", branch, "remote", "origin");
+        config.setString("branch", branch, "merge", Constants.R_HEADS + branch);
+        config.setBoolean("umc", null, "sparse", true);
+        config.save();
+
+        File workTree = repository.getWorkTree();
+        Set<String> kept = new HashSet<>();
+        int skipped = 0;
+        DirCache previous = repository.readDirCache();
+        DirCache index = repository.lockDirCache();
+        try (RevWalk walk = new RevWalk(repository); TreeWalk tree = new TreeWalk(repository)) {
+            DirCacheBuilder builder = index.builder();
+            tree.addTree(walk.parseCommit(remote.getObjectId()).getTree());
+            tree.setRecursive(true);
+            while (tree.next()) {
+                String path = tree.getPathString();
+                FileMode mode = tree.getFileMode(0);
+                DirCacheEntry entry = new DirCacheEntry(path);
+                entry.setFileMode(mode);
+                entry.setObjectId(tree.getObjectId(0));
+
+                if (mode == FileMode.GITLINK || !paths.test(path)) {
+                    entry.setAssumeValid(true);
+                    skipped++;
+                } else {
+                    File file = new File(workTree, path);
+                    DirCacheEntry old = previous.getEntry(path);
+                    boolean current = old != null && !old.isAssumeValid() && old.getObjectId().equals(entry.getObjectId())
+                            && old.getFileMode() == mode && file.exists() && file.length() == old.getLength();
+                    if (!current) {
+                        file.getParentFile().mkdirs();
+                        Files.deleteIfExists(file.toPath());
+                        ObjectLoader blob = repository.open(entry.getObjectId(), Constants.OBJ_BLOB);
+                        if (mode == FileMode.SYMLINK) {
+                            repository.getFS().createSymLink(file, new String(blob.getCachedBytes(), StandardCharsets.UTF_8));
+                        } else {
+                            try (OutputStream output = Files.newOutputStream(file.toPath())) {
+                                blob.copyTo(output);
+                            }
+                            if (mode == FileMode.EXECUTABLE_FILE) {
+                                file.setExecutable(true);
+                            }
+                        }
+                    }
+                    entry.setLength(file.length());
+                    entry.setLastModified(Files.getLastModifiedTime(file.toPath(), LinkOption.NOFOLLOW_LINKS).toInstant());
+                    kept.add(path);
+                }
+                builder.add(entry);
+            }
+            builder.commit();
+        } finally {
+            index.unlock();
+        }
+
+        prune(workTree, workTree, kept);
+        System.out.println(String.format("Checked out %s paths, skipped %s", kept.size(), skipped));
+    }
+
+    /**
+     * Deletes everything under dir (except .git) which is not in kept
+     *
+     * @return true if dir is now empty
+     */
+    private static boolean prune(File workTree, File dir, Set<String> kept) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return true;
+        }
+        boolean empty = true;
+        for (File file : files) {
+            String path = workTree.toPath().relativize(file.toPath()).toString().replace(File.separatorChar, '/');
+            if (path.equals(Constants.DOT_GIT) || kept.contains(path)) {
+                empty = false;
+            } else if (file.isDirectory() && !Files.isSymbolicLink(file.toPath())) {
+                if (prune(workTree, file, kept)) {
+                    Files.delete(file.toPath());
+                } else {
+                    empty = false;
+                }
+            } else {
+                Files.delete(file.toPath());
+            }
+        }
+        return empty;
+    }
+
+    /**
+     * CloneCommand/FetchCommand.setDepth only exist in JGit 6.3+, which needs Java 11.  The build ships JGit 5.13 to
+     * keep Java 8 support, so there shallow requests fetch full history and callers should say so.
+     *
+     * @return false if depth could not be applied
+     */
+    static boolean setDepth(TransportCommand<?, ?> command, int depth) {
+        try {
+            command.getClass().getMethod("setDepth", int.class).invoke(command, depth);
+            return true;
+        } catch (ReflectiveOperationException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return true if this JGit can fetch shallow history
+     */
+    public static boolean supportsDepth() {
+        try {
+            CloneCommand.class.getMethod("setDepth", int.class);
+            return true;
+        } catch (ReflectiveOperationException e) {
+            return false;
+        }
+    }
+
+    static String jgitVersion() {
+        String version = Git.class.getPackage().getImplementationVersion();
+        return "JGit " + (version == null ? "(unknown version)" : version);
+    }
 }
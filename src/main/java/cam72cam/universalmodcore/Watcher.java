@@ -0,0 +1,159 @@
+package cam72cam.universalmodcore;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipFile;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Keeps the workspace in sync with umc.json and a local UMC jar (umc.path).
+ *
+ * The Config, the open jar and which variables each template entry used are kept between changes, so a umc.json edit
+ * only re-renders the entries that use a changed variable (plus build.gradle), while a new jar or changed template
+ * rules re-render everything.
+ * The user's build.gradle blocks are read once at startup, since build.gradle is itself an output.
+ */
+public class Watcher {
+    private final String loaderBranch;
+    private final Path root;
+    private final Options options;
+    private final JarCache cache;
+    private final Boolean useSSH;
+    private final long debounce;
+    private final Path configFile = Paths.get("umc.json").toAbsolutePath();
+
+    private final String build;
+    private final Map<String, Set<String>> usage = new ConcurrentHashMap<>();
+    private Config config;
+    private Path jar;
+    private ZipFile zip;
+    private WorkspaceWriter writer;
+
+    public Watcher(String loaderBranch, Path root, Options options, JarCache cache, Boolean useSSH) throws IOException {
+        this.loaderBranch = loaderBranch;
+        this.root = root;
+        this.options = options;
+        this.cache = cache;
+        this.useSSH = useSSH;
+        this.debounce = options.getLong("debounce", 200);
+        this.build = Setup.readBuild(root);
+    }
+
+    public void run(Config initial) throws IOException, InterruptedException {
+        reload(initial);
+        Setup.integrate(config, root, options, useSSH);
+
+        try (WatchService watch = FileSystems.getDefault().newWatchService()) {
+            configFile.getParent().register(watch, ENTRY_CREATE, ENTRY_MODIFY);
+            Path jarDir = null;
+            if (config.getVars().containsKey("UMC_FILE")) {
+                jarDir = jar.toAbsolutePath().getParent();
+                jarDir.register(watch, ENTRY_CREATE, ENTRY_MODIFY);
+            }
+            System.out.println("Watching for changes, press Ctrl+C to stop");
+
+            // Set until a changed jar has been reloaded, so a failed reload is retried by the next change
+            boolean jarChanged = false;
+            while (true) {
+                WatchKey key = watch.take();
+                boolean configChanged = false;
+                // Collect events until nothing has changed for the debounce interval
+                do {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == OVERFLOW) {
+                            configChanged = true;
+                            jarChanged = jarDir != null;
+                            continue;
+                        }
+                        Path changed = ((Path) key.watchable()).resolve((Path) event.context());
+                        if (changed.equals(configFile)) {
+                            configChanged = true;
+                        } else if (changed.getParent().equals(jarDir) && changed.toString().endsWith(".jar")) {
+                            jarChanged = true;
+                        }
+                    }
+                    key.reset();
+                } while ((key = watch.poll(debounce, TimeUnit.MILLISECONDS)) != null);
+
+                if (!configChanged && !jarChanged) {
+                    continue;
+                }
+
+                long start = System.currentTimeMillis();
+                try {
+                    Config next = Setup.createConfig(Setup.readConfig(), loaderBranch, options);
+                    // Changed template rules may reclassify any entry
+                    boolean rulesChanged = !next.templates.text.equals(config.templates.text) ||
+                            !next.templates.binary.equals(config.templates.binary);
+                    if (jarChanged || rulesChanged || !next.getJar(cache).equals(jar)) {
+                        reload(next);
+                        jarChanged = false;
+                    } else {
+                        update(next);
+                    }
+                    System.out.printf("Regenerated in %dms%n", System.currentTimeMillis() - start);
+                } catch (IOException | RuntimeException e) {
+                    System.out.println("ERROR: Unable to regenerate: " + e);
+                }
+            }
+        } finally {
+            zip.close();
+        }
+    }
+
+    private void reload(Config next) throws IOException {
+        // A jar Gradle is still writing fails to open, which must leave the previous state usable
+        Path nextJar = next.getJar(cache);
+        ZipFile nextZip = new ZipFile(nextJar.toFile());
+        if (zip != null) {
+            zip.close();
+        }
+        config = next;
+        jar = nextJar;
+        zip = nextZip;
+        usage.clear();
+        writer = new WorkspaceWriter(root, options.has("force"));
+
+        extractor().extract(zip, name -> true, usage);
+        Setup.merge(config, root, writer, build);
+        writer.finish(options.has("prune"));
+    }
+
+    private void update(Config next) throws IOException {
+        Set<String> changed = new HashSet<>();
+        Set<String> keys = new HashSet<>(config.getVars().keySet());
+        keys.addAll(next.getVars().keySet());
+        for (String key : keys) {
+            if (!Objects.equals(config.getVars().get(key), next.getVars().get(key))) {
+                changed.add(key);
+            }
+        }
+        Config previous = config;
+        config = next;
+        if (changed.isEmpty()) {
+            System.out.println("No variables changed");
+            return;
+        }
+        System.out.println("Changed: " + changed);
+
+        extractor().extract(zip, name -> {
+            Set<String> used = usage.get(name);
+            if (used != null && Collections.disjoint(used, changed)) {
+                return false;
+            }
+            // A changed path variable moves the output, leaving the old file stale
+            writer.forget(root.resolve(previous.replace(name.replace("template/", ""), false)));
+            return true;
+        }, usage);
+        Setup.merge(config, root, writer, build);
+        writer.finish(options.has("prune"));
+    }
+
+    private TemplateExtractor extractor() {
+        return new TemplateExtractor(config, root, writer, (int) options.getLong("threads", Runtime.getRuntime().availableProcessors()));
+    }
+}
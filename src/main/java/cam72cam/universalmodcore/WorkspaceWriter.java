@@ -0,0 +1,149 @@
+package cam72cam.universalmodcore;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes generated files into the workspace, leaving files whose content is unchanged untouched.
+ *
+ * Every generated file and its sha1 is recorded in .umc/manifest.json, which lets the next run report (or prune)
+ * outputs that are no longer generated.
+ */
+public class WorkspaceWriter {
+    public interface Renderer {
+        void render(OutputStream output) throws IOException;
+    }
+
+    private final Path root;
+    private final boolean force;
+    private final Map<String, String> generated = new TreeMap<>();
+    private final AtomicInteger written = new AtomicInteger();
+    private final AtomicInteger unchanged = new AtomicInteger();
+
+    public WorkspaceWriter(Path root, boolean force) {
+        this.root = root;
+        this.force = force;
+    }
+
+    /**
+     * @return true if out was (re)written
+     */
+    public boolean write(Path out, Renderer renderer) throws IOException {
+        MessageDigest digest = Digests.sha1();
+        boolean changed;
+        if (!force && Files.isRegularFile(out)) {
+            try (ComparingOutputStream output = new ComparingOutputStream(out)) {
+                OutputStream digested = new DigestOutputStream(output, digest);
+                renderer.render(digested);
+                digested.flush();
+                changed = output.finish();
+            }
+        } else {
+            out.getParent().toFile().mkdirs();
+            out.toFile().delete();
+            try (OutputStream output = new DigestOutputStream(Files.newOutputStream(out), digest)) {
+                renderer.render(output);
+            }
+            changed = true;
+        }
+
+        (changed ? written : unchanged).incrementAndGet();
+        if (Metrics.isEnabled()) {
+            if (changed) {
+                Metrics.written(Files.size(out));
+            } else {
+                Metrics.skipped();
+            }
+        }
+        synchronized (generated) {
+            generated.put(relative(out), Digests.hex(digest.digest()));
+        }
+        return changed;
+    }
+
+    /**
+     * @return the sha1 of out as generated this run, or null if it was not
+     */
+    public String getDigest(Path out) {
+        synchronized (generated) {
+            return generated.get(relative(out));
+        }
+    }
+
+    /**
+     * Drops out from this run's outputs, for a file about to be re-rendered (possibly to another path)
+     */
+    public void forget(Path out) {
+        synchronized (generated) {
+            generated.remove(relative(out));
+        }
+    }
+
+    public int getWritten() {
+        return written.get();
+    }
+
+    public int getUnchanged() {
+        return unchanged.get();
+    }
+
+    /**
+     * Reports (or deletes, if prune is set) files from the previous manifest which were not generated this run, then
+     * records the new manifest.
+     */
+    public void finish(boolean prune) throws IOException {
+        Path manifest = root.resolve(".umc").resolve("manifest.json");
+        if (Files.exists(manifest)) {
+            try (Reader reader = Files.newBufferedReader(manifest, StandardCharsets.UTF_8)) {
+                JsonObject previous = JsonParser.parseReader(reader).getAsJsonObject().getAsJsonObject("files");
+                for (String path : previous.keySet()) {
+                    if (generated.containsKey(path)) {
+                        continue;
+                    }
+                    Path stale = root.resolve(path);
+                    if (!Files.exists(stale)) {
+                        continue;
+                    }
+                    if (prune) {
+                        System.out.println("Removing stale " + stale);
+                        Files.delete(stale);
+                    } else {
+                        System.out.printf("WARNING: %s is no longer generated, rerun with --prune to remove it%n", stale);
+                    }
+                }
+            }
+        }
+
+        JsonObject files = new JsonObject();
+        generated.forEach(files::addProperty);
+        JsonObject data = new JsonObject();
+        data.add("files", files);
+
+        Files.createDirectories(manifest.getParent());
+        Gson gson = new GsonBuilder().setPrettyPrinting().create();
+        try (Writer writer = Files.newBufferedWriter(manifest, StandardCharsets.UTF_8)) {
+            gson.toJson(data, writer);
+        }
+
+        System.out.printf("Wrote %d files, %d unchanged%n", written.getAndSet(0), unchanged.getAndSet(0));
+    }
+
+    private String relative(Path out) {
+        return root.relativize(out).toString().replace('\\', '/');
+    }
+}
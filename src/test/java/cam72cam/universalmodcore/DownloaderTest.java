@@ -0,0 +1,110 @@
+package cam72cam.universalmodcore;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class DownloaderTest {
+    private TestServer server;
+    private Path dir;
+    private Path part;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new TestServer();
+        dir = Files.createTempDirectory("downloader");
+        part = dir.resolve("umc.part");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    private static Downloader downloader(int attempts) {
+        return new Downloader(2000, 2000, attempts, 1);
+    }
+
+    @Test
+    public void droppedDownloadResumes() throws IOException {
+        byte[] data = JarCacheTest.jar(100_000, 1);
+        TestServer.Resource resource = server.serve("/umc.jar", data);
+        resource.drops = 1;
+
+        Downloader.Result result = downloader(3).download(server.url("/umc.jar"), part, null, null);
+        assertFalse(result.notModified);
+        assertEquals("\"v1\"", result.etag);
+        assertArrayEquals(data, Files.readAllBytes(part));
+        assertEquals(Arrays.asList(null, "bytes=50000-"), resource.ranges);
+    }
+
+    @Test
+    public void changedArtifactRestarts() throws IOException {
+        byte[] data = JarCacheTest.jar(10_000, 2);
+        TestServer.Resource resource = server.serve("/umc.jar", data);
+        // Left over from a run against an older version of the artifact
+        Files.write(part, new byte[5000]);
+        Files.write(dir.resolve("umc.part.validator"), "\"v0\"".getBytes(StandardCharsets.UTF_8));
+
+        downloader(1).download(server.url("/umc.jar"), part, null, null);
+        assertArrayEquals(data, Files.readAllBytes(part));
+        assertEquals(Arrays.asList("bytes=5000-"), resource.ranges);
+        assertFalse(Files.exists(dir.resolve("umc.part.validator")));
+    }
+
+    @Test
+    public void serverErrorsAreRetried() throws IOException {
+        byte[] data = JarCacheTest.jar(1000, 3);
+        server.serve("/umc.jar", data).failures = 2;
+
+        downloader(3).download(server.url("/umc.jar"), part, null, null);
+        assertArrayEquals(data, Files.readAllBytes(part));
+        assertEquals(3, server.count("/umc.jar"));
+    }
+
+    @Test
+    public void retriesAreBounded() {
+        server.serve("/umc.jar", JarCacheTest.jar(1000, 4)).failures = 10;
+
+        Downloader.HttpException e = assertThrows(Downloader.HttpException.class,
+                () -> downloader(3).download(server.url("/umc.jar"), part, null, null));
+        assertEquals(503, e.status);
+        assertEquals(3, server.count("/umc.jar"));
+    }
+
+    @Test
+    public void clientErrorsAreNotRetried() {
+        server.status("/umc.jar", 404);
+
+        Downloader.HttpException e = assertThrows(Downloader.HttpException.class,
+                () -> downloader(3).download(server.url("/umc.jar"), part, null, null));
+        assertEquals(404, e.status);
+        assertEquals(1, server.count("/umc.jar"));
+    }
+
+    @Test
+    public void matchingEtagIsNotModified() throws IOException {
+        server.serve("/umc.jar", JarCacheTest.jar(1000, 5));
+
+        Downloader.Result result = downloader(1).download(server.url("/umc.jar"), part, "\"v1\"", null);
+        assertTrue(result.notModified);
+        assertFalse(Files.exists(part));
+    }
+
+    @Test
+    public void textOfMissingFileIsNull() throws IOException {
+        server.text("/umc.jar.sha1", "abc");
+        assertEquals("abc", downloader(1).text(server.url("/umc.jar.sha1")));
+        assertNull(downloader(1).text(server.url("/other.jar.sha1")));
+    }
+}
@@ -0,0 +1,62 @@
+package cam72cam.universalmodcore;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class EntryClassifierTest {
+    private static EntryClassifier classifier(String[] text, String[] binary) {
+        JsonObject rules = new JsonObject();
+        JsonArray textRules = new JsonArray();
+        for (String glob : text) {
+            textRules.add(glob);
+        }
+        JsonArray binaryRules = new JsonArray();
+        for (String glob : binary) {
+            binaryRules.add(glob);
+        }
+        rules.add("text", textRules);
+        rules.add("binary", binaryRules);
+        return new EntryClassifier(new Config.Templates(rules));
+    }
+
+    private static InputStream text() {
+        return new ByteArrayInputStream("hello #ID#".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void nameGlobsMatchInAnyDirectory() throws IOException {
+        EntryClassifier classifier = classifier(new String[0], new String[]{"*.java"});
+        assertEquals(EntryClassifier.Kind.BINARY, classifier.classify("src/main/java/Mod.java", text()));
+        assertEquals(EntryClassifier.Kind.BINARY, classifier.classify("Mod.java", text()));
+    }
+
+    @Test
+    public void pathGlobsMatchOnlyTheFullPath() throws IOException {
+        EntryClassifier classifier = classifier(new String[0], new String[]{"src/*.java"});
+        assertEquals(EntryClassifier.Kind.BINARY, classifier.classify("src/Mod.java", text()));
+        assertEquals(EntryClassifier.Kind.TEXT, classifier.classify("other/src/Mod.java", text()));
+        assertEquals(EntryClassifier.Kind.TEXT, classifier.classify("Mod.java", text()));
+    }
+
+    @Test
+    public void textRulesWin() throws IOException {
+        EntryClassifier classifier = classifier(new String[]{"assets/**/*.png"}, new String[0]);
+        assertEquals(EntryClassifier.Kind.TEXT, classifier.classify("assets/mod/icon.png", text()));
+        assertEquals(EntryClassifier.Kind.BINARY, classifier.classify("icon.png", text()));
+    }
+
+    @Test
+    public void unknownExtensionsAreSniffed() throws IOException {
+        EntryClassifier classifier = classifier(new String[0], new String[0]);
+        assertEquals(EntryClassifier.Kind.TEXT, classifier.classify("README", text()));
+        assertEquals(EntryClassifier.Kind.BINARY, classifier.classify("blob", new ByteArrayInputStream(new byte[]{1, 0, 2})));
+    }
+}
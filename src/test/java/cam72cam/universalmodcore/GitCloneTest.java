@@ -0,0 +1,145 @@
+package cam72cam.universalmodcore;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Ref;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class GitCloneTest {
+    private static final List<String> BRANCHES = Arrays.asList("1.12.2-forge", "1.16.5-forge", "1.20.1-forge", "1.21-fabric");
+
+    private Path dir;
+    private String remote;
+
+    @Before
+    public void setUp() throws IOException, GitAPIException {
+        dir = Files.createTempDirectory("git-clone");
+        File work = dir.resolve("work").toFile();
+        try (Git repo = Git.init().setDirectory(work).call()) {
+            commit(repo, "README", "base");
+            String main = repo.getRepository().getBranch();
+            for (String branch : BRANCHES) {
+                repo.checkout().setCreateBranch(true).setName(branch).setStartPoint(main).call();
+                for (int i = 0; i < 3; i++) {
+                    commit(repo, branch + "-" + i, branch + " " + i);
+                }
+            }
+        }
+        File bare = dir.resolve("remote.git").toFile();
+        Git.cloneRepository().setBare(true).setURI(work.toURI().toString()).setDirectory(bare).setCloneAllBranches(true).call().close();
+        // The form JGit stores as remote.origin.url, so updates recognise their checkout
+        remote = "file://" + bare.getAbsolutePath();
+    }
+
+    private static void commit(Git repo, String file, String content) throws IOException, GitAPIException {
+        Files.write(repo.getRepository().getWorkTree().toPath().resolve(file), content.getBytes(StandardCharsets.UTF_8));
+        repo.add().addFilepattern(file).call();
+        repo.commit().setMessage(content).setAuthor("test", "test@example.com").setCommitter("test", "test@example.com").call();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    private static List<String> remoteBranches(File checkout) throws IOException {
+        try (Git repo = Git.open(checkout)) {
+            return repo.getRepository().getRefDatabase().getRefsByPrefix(Constants.R_REMOTES + "origin/").stream()
+                    .map(Ref::getName)
+                    .map(name -> name.substring((Constants.R_REMOTES + "origin/").length()))
+                    .filter(name -> !name.equals(Constants.HEAD))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static int history(File checkout) throws IOException, GitAPIException {
+        try (Git repo = Git.open(checkout)) {
+            int count = 0;
+            for (Object commit : repo.log().call()) {
+                count++;
+            }
+            return count;
+        }
+    }
+
+    private static String branch(File checkout) throws IOException {
+        try (Git repo = Git.open(checkout)) {
+            return repo.getRepository().getBranch();
+        }
+    }
+
+    @Test
+    public void fullClonesEveryBranch() throws IOException, GitAPIException {
+        File checkout = dir.resolve("full").toFile();
+        Util.gitClone(remote, "1.16.5-forge", checkout, null, CloneMode.FULL, 0);
+
+        assertEquals(BRANCHES.stream().sorted().collect(Collectors.toList()), remoteBranches(checkout).stream().filter(BRANCHES::contains).collect(Collectors.toList()));
+        assertEquals("1.16.5-forge", branch(checkout));
+        assertTrue(new File(checkout, "1.16.5-forge-2").exists());
+        assertFalse(new File(checkout, "1.20.1-forge-0").exists());
+        assertEquals(4, history(checkout));
+    }
+
+    @Test
+    public void branchClonesOneBranch() throws IOException, GitAPIException {
+        File checkout = dir.resolve("branch").toFile();
+        Util.gitClone(remote, "1.20.1-forge", checkout, null, CloneMode.BRANCH, 0);
+
+        assertEquals(Arrays.asList("1.20.1-forge"), remoteBranches(checkout));
+        assertEquals("1.20.1-forge", branch(checkout));
+        assertTrue(new File(checkout, "1.20.1-forge-2").exists());
+        assertEquals(4, history(checkout));
+    }
+
+    @Test
+    public void shallowLimitsHistoryWhenSupported() throws IOException, GitAPIException {
+        File checkout = dir.resolve("shallow").toFile();
+        Util.gitClone(remote, "1.21-fabric", checkout, null, CloneMode.SHALLOW, 1);
+
+        assertEquals(Arrays.asList("1.21-fabric"), remoteBranches(checkout));
+        assertEquals("1.21-fabric", branch(checkout));
+        assertTrue(new File(checkout, "1.21-fabric-2").exists());
+        // JGit before 6.3 falls back to the whole branch
+        assertEquals(Util.supportsDepth() ? 1 : 4, history(checkout));
+    }
+
+    @Test
+    public void existingCheckoutIsUpdated() throws IOException, GitAPIException {
+        File checkout = dir.resolve("update").toFile();
+        Util.gitClone(remote, "1.12.2-forge", checkout, null, CloneMode.BRANCH, 0);
+        Files.write(checkout.toPath().resolve("1.12.2-forge-0"), "local change".getBytes(StandardCharsets.UTF_8));
+        Files.write(checkout.toPath().resolve("untracked"), "junk".getBytes(StandardCharsets.UTF_8));
+        // Survives an update, but not a reclone
+        Path marker = checkout.toPath().resolve(Constants.DOT_GIT).resolve("marker");
+        Files.createFile(marker);
+
+        try (Git work = Git.open(dir.resolve("work").toFile())) {
+            work.checkout().setName("1.12.2-forge").call();
+            commit(work, "1.12.2-forge-3", "upstream");
+            work.push().setRemote(remote).add("1.12.2-forge").call();
+        }
+
+        Util.gitClone(remote, "1.12.2-forge", checkout, null, CloneMode.BRANCH, 0);
+        assertEquals("1.12.2-forge 0", new String(Files.readAllBytes(checkout.toPath().resolve("1.12.2-forge-0")), StandardCharsets.UTF_8));
+        assertTrue(new File(checkout, "1.12.2-forge-3").exists());
+        assertFalse(new File(checkout, "untracked").exists());
+        assertTrue(Files.exists(marker));
+        assertEquals(5, history(checkout));
+    }
+}
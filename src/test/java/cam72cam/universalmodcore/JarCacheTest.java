@@ -0,0 +1,147 @@
+package cam72cam.universalmodcore;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class JarCacheTest {
+    private TestServer server;
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new TestServer();
+        dir = Files.createTempDirectory("jar-cache");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    static byte[] jar(int size, int seed) {
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    private JarCache cache(long maxBytes, boolean offline) {
+        return new JarCache(dir, maxBytes, offline, false, new Downloader(2000, 2000, 3, 1));
+    }
+
+    @Test
+    public void missDownloadsAndHitDoesNot() throws IOException {
+        byte[] data = jar(100_000, 1);
+        server.serve("/umc.jar", data);
+
+        Path first = cache(1 << 30, false).fetch(server.url("/umc.jar"), "umc");
+        assertArrayEquals(data, Files.readAllBytes(first));
+        assertEquals(Digests.sha1(first) + ".jar", first.getFileName().toString());
+        assertEquals(1, server.count("/umc.jar"));
+
+        Path second = cache(1 << 30, false).fetch(server.url("/umc.jar"), "umc");
+        assertEquals(first, second);
+        assertEquals(1, server.count("/umc.jar"));
+    }
+
+    @Test
+    public void offlineUsesCache() throws IOException {
+        server.serve("/umc.jar", jar(1000, 2));
+        Path cached = cache(1 << 30, false).fetch(server.url("/umc.jar"), "umc");
+        server.close();
+
+        assertEquals(cached, cache(1 << 30, true).fetch(server.url("/umc.jar"), "umc"));
+        assertThrows(IOException.class, () -> cache(1 << 30, true).fetch(server.url("/other.jar"), "other"));
+    }
+
+    @Test
+    public void corruptObjectIsDownloadedAgain() throws IOException {
+        byte[] data = jar(1000, 3);
+        server.serve("/umc.jar", data);
+        Path cached = cache(1 << 30, false).fetch(server.url("/umc.jar"), "umc");
+        Files.write(cached, new byte[]{1, 2, 3});
+
+        Path fetched = cache(1 << 30, false).fetch(server.url("/umc.jar"), "umc");
+        assertArrayEquals(data, Files.readAllBytes(fetched));
+        assertEquals(2, server.count("/umc.jar"));
+    }
+
+    @Test
+    public void leastRecentlyUsedIsEvicted() throws IOException {
+        server.serve("/a.jar", jar(10_000, 4));
+        server.serve("/b.jar", jar(10_000, 5));
+        JarCache cache = cache(15_000, false);
+
+        Path a = cache.fetch(server.url("/a.jar"), "a");
+        Path b = cache.fetch(server.url("/b.jar"), "b");
+        assertFalse(Files.exists(a));
+        assertTrue(Files.exists(b));
+
+        cache.fetch(server.url("/a.jar"), "a");
+        assertEquals(2, server.count("/a.jar"));
+        assertFalse(Files.exists(b));
+    }
+
+    @Test
+    public void deferredEvictionKeepsJarsUntilEvict() throws IOException {
+        server.serve("/a.jar", jar(10_000, 4));
+        server.serve("/b.jar", jar(10_000, 5));
+        JarCache cache = cache(15_000, false);
+        cache.deferEviction();
+
+        Path a = cache.fetch(server.url("/a.jar"), "a");
+        Path b = cache.fetch(server.url("/b.jar"), "b");
+        assertTrue(Files.exists(a));
+
+        cache.evict();
+        assertFalse(Files.exists(a));
+        assertTrue(Files.exists(b));
+    }
+
+    @Test
+    public void refreshRevalidates() throws IOException {
+        byte[] data = jar(1000, 7);
+        TestServer.Resource resource = server.serve("/umc.jar", data);
+        Path cached = cache(1 << 30, false).fetch(server.url("/umc.jar"), "umc");
+
+        JarCache refresh = new JarCache(dir, 1 << 30, false, true, new Downloader(2000, 2000, 3, 1));
+        assertEquals(cached, refresh.fetch(server.url("/umc.jar"), "umc"));
+        assertEquals(2, server.count("/umc.jar"));
+        assertEquals(1, server.count("/umc.jar.sha1"));
+
+        // A new artifact behind the same url replaces the cached one
+        byte[] changed = jar(1000, 8);
+        server.serve("/umc.jar", changed).etag = "\"v2\"";
+        assertArrayEquals(changed, Files.readAllBytes(refresh.fetch(server.url("/umc.jar"), "umc")));
+    }
+
+    @Test
+    public void digestOfCachedJarIsItsName() throws IOException {
+        server.serve("/umc.jar", jar(1000, 9));
+        JarCache cache = cache(1 << 30, false);
+        Path cached = cache.fetch(server.url("/umc.jar"), "umc");
+        assertEquals(Digests.sha1(cached), cache.digest(cached));
+
+        // Only trusted for the cache's own objects
+        Path local = Files.write(dir.resolve(cached.getFileName()), jar(1000, 10));
+        assertEquals(Digests.sha1(local), cache.digest(local));
+        assertNotEquals(cache.digest(cached), cache.digest(local));
+    }
+
+    @Test
+    public void checksumMismatchFails() throws IOException {
+        server.serve("/umc.jar", jar(1000, 6));
+        server.text("/umc.jar.sha1", "0000000000000000000000000000000000000000");
+
+        assertThrows(IOException.class, () -> cache(1 << 30, false).fetch(server.url("/umc.jar"), "umc"));
+    }
+}
@@ -0,0 +1,105 @@
+package cam72cam.universalmodcore;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class LatestResolverTest {
+    private Path dir;
+    private String remote;
+    private final Map<String, String> expected = new HashMap<>();
+
+    @Before
+    public void setUp() throws IOException, GitAPIException {
+        dir = Files.createTempDirectory("latest");
+        File work = dir.resolve("work").toFile();
+        try (Git repo = Git.init().setDirectory(work).call()) {
+            commit(repo, "String umcVersion = \"0.0.0\"");
+            String main = repo.getRepository().getBranch();
+            for (String branch : new String[]{"1.12.2-forge", "1.16.5-forge"}) {
+                repo.checkout().setCreateBranch(true).setName(branch).setStartPoint(main).call();
+                RevCommit tip = commit(repo, "String umcVersion = \"1.2." + branch.length() + "\"");
+                expected.put(branch, "1.2." + branch.length() + "-" + tip.abbreviate(7).name());
+            }
+        }
+        File bare = dir.resolve("remote.git").toFile();
+        Git.cloneRepository().setBare(true).setURI(work.toURI().toString()).setDirectory(bare).setCloneAllBranches(true).call().close();
+        remote = "file://" + bare.getAbsolutePath();
+    }
+
+    private static RevCommit commit(Git repo, String gradle) throws IOException, GitAPIException {
+        Files.write(repo.getRepository().getWorkTree().toPath().resolve("build.gradle"), gradle.getBytes(StandardCharsets.UTF_8));
+        repo.add().addFilepattern("build.gradle").call();
+        return repo.commit().setMessage(gradle).setAuthor("test", "test@example.com").setCommitter("test", "test@example.com").call();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    @Test
+    public void resolvesBranchesConcurrently() throws Exception {
+        LatestResolver resolver = new LatestResolver(dir.resolve("cache"));
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> forge12 = new ArrayList<>();
+            List<Future<String>> forge16 = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                forge12.add(pool.submit(() -> resolver.resolve(remote, "1.12.2-forge")));
+                forge16.add(pool.submit(() -> resolver.resolve(remote, "1.16.5-forge")));
+            }
+            for (int i = 0; i < 4; i++) {
+                assertEquals(expected.get("1.12.2-forge"), forge12.get(i).get());
+                assertEquals(expected.get("1.16.5-forge"), forge16.get(i).get());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void memoizedVersionSkipsFetch() throws IOException {
+        Path cache = dir.resolve("cache");
+        assertEquals(expected.get("1.12.2-forge"), new LatestResolver(cache).resolve(remote, "1.12.2-forge"));
+
+        // Only ls-remote is needed for a known tip.  Moved rather than deleted, JGit may still be gc'ing it
+        for (Path repo : bareRepos(cache)) {
+            Files.move(repo, dir.resolve(repo.getFileName()));
+        }
+        assertEquals(expected.get("1.12.2-forge"), new LatestResolver(cache).resolve(remote, "1.12.2-forge"));
+        assertTrue(bareRepos(cache).isEmpty());
+    }
+
+    @Test
+    public void missingBranchFails() {
+        assertThrows(IOException.class, () -> new LatestResolver(dir.resolve("cache")).resolve(remote, "1.7.10-forge"));
+    }
+
+    private static List<Path> bareRepos(Path cache) throws IOException {
+        try (Stream<Path> files = Files.list(cache.resolve("latest"))) {
+            return files.filter(p -> p.toString().endsWith(".git")).collect(Collectors.toList());
+        }
+    }
+}
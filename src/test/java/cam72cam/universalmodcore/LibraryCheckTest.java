@@ -0,0 +1,124 @@
+package cam72cam.universalmodcore;
+
+import com.google.gson.JsonObject;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LibraryCheckTest {
+    private TestServer server;
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new TestServer();
+        dir = Files.createTempDirectory("library-check");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    private LibraryCheck check() {
+        return new LibraryCheck(dir.resolve("cache"), TimeUnit.HOURS.toMillis(1), new Downloader(2000, 2000, 2, 1), 4);
+    }
+
+    private static Config.Library library(String artifact, boolean isDir, String repository) {
+        JsonObject data = new JsonObject();
+        data.addProperty("artifact", artifact);
+        data.addProperty("repositoryType", isDir ? "Dir" : "URL");
+        data.addProperty("repository", repository);
+        data.addProperty("type", "implementation");
+        return new Config.Library(data);
+    }
+
+    private Config.Library maven(String artifact) {
+        return library(artifact, false, server.url("/maven/"));
+    }
+
+    @Test
+    public void foundArtifactIsRemembered() throws IOException {
+        server.serve("/maven/com/example/lib/1.0/lib-1.0.pom", new byte[10]);
+
+        List<LibraryCheck.Result> results = check().check(Arrays.asList(maven("com.example:lib:1.0")), dir);
+        assertTrue(results.get(0).ok);
+        assertNull(results.get(0).message);
+        assertEquals(1, server.count("/maven/com/example/lib/1.0/lib-1.0.pom"));
+
+        assertTrue(check().check(Arrays.asList(maven("com.example:lib:1.0")), dir).get(0).ok);
+        assertEquals(1, server.count("/maven/com/example/lib/1.0/lib-1.0.pom"));
+    }
+
+    @Test
+    public void snapshotChecksMetadata() throws IOException {
+        server.serve("/maven/com/example/lib/1.1-SNAPSHOT/maven-metadata.xml", new byte[10]);
+
+        assertTrue(check().check(Arrays.asList(maven("com.example:lib:1.1-SNAPSHOT")), dir).get(0).ok);
+    }
+
+    @Test
+    public void statusesAreReportedPerLibrary() throws IOException {
+        server.status("/maven/com/example/secret/1.0/secret-1.0.pom", 401);
+        server.status("/maven/com/example/broken/1.0/broken-1.0.pom", 503);
+
+        List<LibraryCheck.Result> results = check().check(Arrays.asList(
+                maven("com.example:missing:1.0"),
+                maven("com.example:secret:1.0"),
+                maven("com.example:broken:1.0")
+        ), dir);
+
+        assertFalse(results.get(0).ok);
+        assertTrue(results.get(0).message.contains("not found"));
+        // Can not be verified without credentials, but should not fail the run
+        assertTrue(results.get(1).ok);
+        assertTrue(results.get(1).message.contains("401"));
+        assertFalse(results.get(2).ok);
+        assertEquals(2, server.count("/maven/com/example/broken/1.0/broken-1.0.pom"));
+    }
+
+    @Test
+    public void flatDirAcceptsJarWithOrWithoutVersion() throws IOException {
+        Files.createDirectories(dir.resolve("libs"));
+        Files.write(dir.resolve("libs/with-1.0.jar"), new byte[1]);
+        Files.write(dir.resolve("libs/without.jar"), new byte[1]);
+
+        List<LibraryCheck.Result> results = check().check(Arrays.asList(
+                library("com.example:with:1.0", true, "libs"),
+                library("com.example:without:1.0", true, "libs"),
+                library("com.example:absent:1.0", true, "libs"),
+                library("com.example:lib:1.0", true, "missing")
+        ), dir);
+
+        assertTrue(results.get(0).ok);
+        assertTrue(results.get(1).ok);
+        assertFalse(results.get(2).ok);
+        assertFalse(results.get(3).ok);
+        assertTrue(results.get(3).message.contains("does not exist"));
+    }
+
+    @Test
+    public void malformedArtifactFailsOnlyItself() throws IOException {
+        server.serve("/maven/com/example/lib/1.0/lib-1.0.pom", new byte[10]);
+
+        List<LibraryCheck.Result> results = check().check(Arrays.asList(
+                maven("com.example:lib"),
+                maven("com.example:lib:1.0")
+        ), dir);
+
+        assertFalse(results.get(0).ok);
+        assertTrue(results.get(0).message.contains("Invalid library artifact"));
+        assertTrue(results.get(1).ok);
+    }
+}
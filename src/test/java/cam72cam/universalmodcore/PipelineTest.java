@@ -0,0 +1,150 @@
+package cam72cam.universalmodcore;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+public class PipelineTest {
+    private TestServer server;
+    private Path dir;
+    private Path root;
+    private JarCache cache;
+    private TemplateExtractor extractor;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new TestServer();
+        dir = Files.createTempDirectory("pipeline");
+        root = Files.createDirectories(dir.resolve("workspace"));
+        cache = new JarCache(dir.resolve("cache"), 1 << 30, false, false, new Downloader(2000, 2000, 3, 1));
+
+        JsonObject mod = new JsonObject();
+        mod.addProperty("pkg", "com.example.mod");
+        mod.addProperty("cls", "ExampleMod");
+        mod.addProperty("name", "Example Mod");
+        mod.addProperty("id", "examplemod");
+        mod.addProperty("version", "1.0.0");
+        mod.add("dependencies", new JsonObject());
+        mod.add("libraries", new JsonArray());
+        JsonObject umc = new JsonObject();
+        umc.addProperty("version", "1.2.3");
+        JsonObject data = new JsonObject();
+        data.add("mod", mod);
+        data.add("umc", umc);
+        Config config = new Config(data, "1.12.2", Loader.FORGE);
+        extractor = new TemplateExtractor(config, root, new WorkspaceWriter(root, false), 2);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    private static byte[] jar() throws IOException {
+        return jar("# #NAME#\n");
+    }
+
+    private static byte[] jar(String readme) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            zip.putNextEntry(new ZipEntry("cam72cam/mod/ModCore.class"));
+            zip.write(JarCacheTest.jar(50_000, 1));
+            zip.putNextEntry(new ZipEntry("template/src/main/java/PACKAGEPATH/CLASS.java"));
+            zip.write("package #PACKAGE#;\nclass #CLASS# {}\n".getBytes(StandardCharsets.UTF_8));
+            zip.putNextEntry(new ZipEntry("template/README.md"));
+            zip.write(readme.getBytes(StandardCharsets.UTF_8));
+        }
+        return bytes.toByteArray();
+    }
+
+    private String read(String path) throws IOException {
+        return new String(Files.readAllBytes(root.resolve(path)), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void rendersReachTheWorkspaceOnCommit() throws IOException {
+        server.serve("/umc.jar", jar());
+
+        try (TemplateExtractor.Pipeline pipeline = extractor.pipeline()) {
+            cache.fetch(server.url("/umc.jar"), "umc", pipeline);
+            assertFalse(Files.exists(root.resolve("README.md")));
+
+            assertTrue(pipeline.commit());
+        }
+        assertEquals("# Example Mod\n", read("README.md"));
+        assertEquals("package com.example.mod;\nclass ExampleMod {}\n", read("src/main/java/com/example/mod/ExampleMod.java"));
+        assertEquals(2, extractor.getRendered().size());
+        // Staging is removed once the pipeline closes
+        assertEquals(0, Files.list(root.resolve(".umc")).count());
+    }
+
+    @Test
+    public void restartReplacesEarlierRenders() throws IOException {
+        byte[] old = jar("old #NAME#\n");
+        byte[] data = jar();
+        AtomicInteger requests = new AtomicInteger();
+        server.text("/umc.jar.sha1", Digests.hex(Digests.sha1().digest(data)));
+        server.handle("/umc.jar", exchange -> {
+            if (requests.getAndIncrement() == 0) {
+                // All of an older jar, but the connection drops before the promised length
+                exchange.getResponseHeaders().add("ETag", "\"v1\"");
+                exchange.sendResponseHeaders(200, old.length + 10);
+                exchange.getResponseBody().write(old);
+                exchange.getResponseBody().flush();
+                throw new IOException("Dropped");
+            }
+            // The artifact changed, so If-Range fails and the download starts over
+            exchange.getResponseHeaders().add("ETag", "\"v2\"");
+            exchange.sendResponseHeaders(200, data.length);
+            exchange.getResponseBody().write(data);
+        });
+
+        try (TemplateExtractor.Pipeline pipeline = extractor.pipeline()) {
+            cache.fetch(server.url("/umc.jar"), "umc", pipeline);
+            assertTrue(pipeline.commit());
+        }
+        assertEquals(2, requests.get());
+        assertEquals("# Example Mod\n", read("README.md"));
+        assertEquals(2, extractor.getRendered().size());
+    }
+
+    @Test
+    public void badChecksumLeavesWorkspaceAlone() throws IOException {
+        server.serve("/umc.jar", jar());
+        server.text("/umc.jar.sha1", "0000000000000000000000000000000000000000");
+
+        try (TemplateExtractor.Pipeline pipeline = extractor.pipeline()) {
+            assertThrows(IOException.class, () -> cache.fetch(server.url("/umc.jar"), "umc", pipeline));
+        }
+        assertFalse(Files.exists(root.resolve("README.md")));
+        assertEquals(0, Files.list(root.resolve(".umc")).count());
+    }
+
+    @Test
+    public void cacheHitIsNotStreamed() throws IOException {
+        server.serve("/umc.jar", jar());
+        Path jar = cache.fetch(server.url("/umc.jar"), "umc");
+
+        try (TemplateExtractor.Pipeline pipeline = extractor.pipeline()) {
+            assertEquals(jar, cache.fetch(server.url("/umc.jar"), "umc", pipeline));
+            assertFalse(pipeline.commit());
+        }
+        extractor.extract(jar);
+        assertEquals("# Example Mod\n", read("README.md"));
+    }
+}
@@ -0,0 +1,78 @@
+package cam72cam.universalmodcore;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+public class ReplacerTest {
+    private static Replacer replacer(boolean hash, String... pairs) {
+        Map<String, String> vars = new HashMap<>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            vars.put(pairs[i], pairs[i + 1]);
+        }
+        return new Replacer(vars, hash);
+    }
+
+    private static String stream(Replacer replacer, String input) throws IOException {
+        StringWriter out = new StringWriter();
+        replacer.apply(new StringReader(input), out);
+        return out.toString();
+    }
+
+    @Test
+    public void replacesHashKeys() {
+        Replacer replacer = replacer(true, "ID", "mymod", "NAME", "My Mod");
+        assertEquals("mymod is My Mod", replacer.apply("#ID# is #NAME#"));
+        assertEquals("ID is NAME", replacer.apply("ID is NAME"));
+    }
+
+    @Test
+    public void longestKeyWins() {
+        Replacer replacer = replacer(false, "UMC", "a", "UMC_VERSION", "b");
+        assertEquals("b a", replacer.apply("UMC_VERSION UMC"));
+    }
+
+    /**
+     * Pins where the single pass differs from the old sequential String.replace: overlapping tokens are matched left
+     * to right (the old code replaced #NAME# first and left "#ID"), and substituted values are never rescanned.
+     */
+    @Test
+    public void overlappingTokensMatchLeftmost() {
+        Replacer replacer = replacer(true, "ID", "mymod", "NAME", "My Mod");
+        assertEquals("mymodNAME#", replacer.apply("#ID#NAME#"));
+    }
+
+    @Test
+    public void valuesAreNotRescanned() {
+        Replacer replacer = replacer(true, "ID", "#NAME#", "NAME", "My Mod");
+        assertEquals("#NAME# My Mod", replacer.apply("#ID# #NAME#"));
+    }
+
+    @Test
+    public void streamingMatchesStrings() throws IOException {
+        Replacer replacer = replacer(true, "ID", "mymod", "PACKAGE", "com.example.mymod");
+        StringBuilder input = new StringBuilder();
+        // Long enough to split keys across the stream's buffer
+        for (int i = 0; i < 5000; i++) {
+            input.append(i % 3 == 0 ? "#PACKAGE#" : i % 3 == 1 ? "#ID#" : "text ");
+        }
+        assertEquals(replacer.apply(input.toString()), stream(replacer, input.toString()));
+    }
+
+    @Test
+    public void collectsUsedVariables() throws IOException {
+        Replacer replacer = replacer(true, "ID", "mymod", "NAME", "My Mod", "CLASS", "MyMod");
+        Set<String> used = new HashSet<>();
+        replacer.apply(new StringReader("#ID# #CLASS#"), new StringWriter(), used);
+        assertEquals(new HashSet<>(Arrays.asList("ID", "CLASS")), used);
+    }
+}
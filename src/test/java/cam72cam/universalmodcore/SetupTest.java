@@ -0,0 +1,101 @@
+package cam72cam.universalmodcore;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+public class SetupTest {
+    private Path dir;
+    private Config config;
+    private Options options;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("setup");
+        Path umc = dir.resolve("umc");
+        Path jar = umc.resolve("build/libs/UniversalModCore-1.12.2-forge-1.2.3.jar");
+        Files.createDirectories(jar.getParent());
+        try (OutputStream file = Files.newOutputStream(jar); ZipOutputStream zip = new ZipOutputStream(file)) {
+            zip.putNextEntry(new ZipEntry("template/template.gradle"));
+            zip.write("// header //\nversion = '#VERSION#'\n//deps//\n".getBytes(StandardCharsets.UTF_8));
+            zip.putNextEntry(new ZipEntry("template/README.md"));
+            zip.write("# #NAME#\n".getBytes(StandardCharsets.UTF_8));
+        }
+
+        JsonObject mod = new JsonObject();
+        mod.addProperty("pkg", "com.example.mod");
+        mod.addProperty("cls", "ExampleMod");
+        mod.addProperty("name", "Example Mod");
+        mod.addProperty("id", "examplemod");
+        mod.addProperty("version", "1.0.0");
+        mod.add("dependencies", new JsonObject());
+        mod.add("libraries", new JsonArray());
+        JsonObject umcData = new JsonObject();
+        umcData.addProperty("version", "1.2.3");
+        umcData.addProperty("path", umc.toString());
+        JsonObject data = new JsonObject();
+        data.add("mod", mod);
+        data.add("umc", umcData);
+
+        options = Options.parse(new String[]{"--cache-dir=" + dir.resolve("cache")});
+        config = new Config(data, "1.12.2", Loader.FORGE, options);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    @Test
+    public void generatesIntoFreshDirectory() throws IOException {
+        Path out = dir.resolve("out1");
+        Setup.generate(config, out, "//deps//\ncompile 'a:b:1'\n", options, JarCache.fromOptions(options), null);
+
+        assertEquals("# Example Mod\n", new String(Files.readAllBytes(out.resolve("README.md")), StandardCharsets.UTF_8));
+        String build = new String(Files.readAllBytes(out.resolve("build.gradle")), StandardCharsets.UTF_8);
+        assertTrue(build.contains("version = '1.0.0'"));
+        assertTrue(build.contains("compile 'a:b:1'"));
+        assertFalse(build.contains("//deps//"));
+    }
+
+    @Test
+    public void reportAttributesWritesToPhases() throws IOException {
+        Metrics.enable();
+        Setup.generate(config, dir.resolve("out1"), "//deps//\n", options, JarCache.fromOptions(options), null);
+        Path report = dir.resolve("report.json");
+        Metrics.writeReport(report);
+
+        Map<String, JsonObject> phases = new HashMap<>();
+        for (JsonElement phase : JsonParser.parseString(new String(Files.readAllBytes(report), StandardCharsets.UTF_8)).getAsJsonObject().getAsJsonArray("phases")) {
+            phases.put(phase.getAsJsonObject().get("name").getAsString(), phase.getAsJsonObject());
+        }
+        assertFalse(phases.containsKey("write"));
+        // README.md and template.gradle
+        assertEquals(2, phases.get("extract").get("filesEmitted").getAsInt());
+        assertEquals(1, phases.get("merge").get("filesEmitted").getAsInt());
+        assertTrue(phases.get("merge").get("bytesWritten").getAsLong() > 0);
+    }
+
+    @Test
+    public void missingBuildGradleFailsBeforeWriting() {
+        assertThrows(IOException.class, () -> Setup.readBuild(dir.resolve("out1")));
+        assertFalse(Files.exists(dir.resolve("out1")));
+    }
+}
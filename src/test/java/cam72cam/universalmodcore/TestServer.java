@@ -0,0 +1,155 @@
+package cam72cam.universalmodcore;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+
+/**
+ * Local HTTP stand-in for maven repositories.  Served files honour Range/If-Range and If-None-Match like a real
+ * repository, and can be told to fail their first few requests.
+ */
+public class TestServer implements AutoCloseable {
+    public interface Handler {
+        void handle(HttpExchange exchange) throws IOException;
+    }
+
+    public static class Resource {
+        public final byte[] data;
+        public String etag = "\"v1\"";
+        /** The next failures requests are answered with 503 */
+        public int failures;
+        /** The next drops requests send the full length header but only half the body */
+        public int drops;
+        /** The Range header of every GET, null for a full request */
+        public final List<String> ranges = Collections.synchronizedList(new ArrayList<>());
+
+        Resource(byte[] data) {
+            this.data = data;
+        }
+    }
+
+    private final HttpServer server;
+    private final Map<String, Handler> handlers = new ConcurrentHashMap<>();
+    /** "METHOD path" of every request, in order */
+    public final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+
+    public TestServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", exchange -> {
+            try {
+                String path = exchange.getRequestURI().getPath();
+                requests.add(exchange.getRequestMethod() + " " + path);
+                Handler handler = handlers.get(path);
+                if (handler == null) {
+                    exchange.sendResponseHeaders(404, -1);
+                } else {
+                    handler.handle(exchange);
+                }
+            } finally {
+                exchange.close();
+            }
+        });
+        server.start();
+    }
+
+    public String url(String path) {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + path;
+    }
+
+    public void handle(String path, Handler handler) {
+        handlers.put(path, handler);
+    }
+
+    public void status(String path, int status) {
+        handle(path, exchange -> exchange.sendResponseHeaders(status, -1));
+    }
+
+    public void text(String path, String text) {
+        byte[] data = text.getBytes(StandardCharsets.UTF_8);
+        handle(path, exchange -> {
+            exchange.sendResponseHeaders(200, data.length);
+            exchange.getResponseBody().write(data);
+        });
+    }
+
+    /**
+     * Serves data at path, and its sha1 at path.sha1
+     */
+    public Resource serve(String path, byte[] data) {
+        Resource resource = new Resource(data);
+        text(path + ".sha1", Digests.hex(Digests.sha1().digest(data)));
+        handle(path, exchange -> {
+            synchronized (resource) {
+                if (resource.failures > 0) {
+                    resource.failures--;
+                    exchange.sendResponseHeaders(503, -1);
+                    return;
+                }
+            }
+            exchange.getResponseHeaders().add("ETag", resource.etag);
+            if (resource.etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+
+            int start = 0;
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            resource.ranges.add(range);
+            if (range != null && resource.etag.equals(exchange.getRequestHeaders().getFirst("If-Range"))) {
+                start = Integer.parseInt(range.substring("bytes=".length(), range.indexOf('-')));
+                exchange.getResponseHeaders().add("Content-Range", String.format("bytes %s-%s/%s", start, resource.data.length - 1, resource.data.length));
+                exchange.sendResponseHeaders(206, resource.data.length - start);
+            } else {
+                exchange.sendResponseHeaders(200, resource.data.length);
+            }
+
+            boolean drop;
+            synchronized (resource) {
+                drop = resource.drops > 0;
+                if (drop) {
+                    resource.drops--;
+                }
+            }
+            OutputStream body = exchange.getResponseBody();
+            if (drop) {
+                int half = (resource.data.length - start) / 2;
+                body.write(resource.data, start, half);
+                body.flush();
+                // Abandon the response without finishing the body
+                throw new IOException("Dropped after " + half + " bytes");
+            }
+            body.write(resource.data, start, resource.data.length - start);
+        });
+        return resource;
+    }
+
+    /**
+     * @return how many requests were made for path
+     */
+    public int count(String path) {
+        synchronized (requests) {
+            return (int) requests.stream().filter(r -> r.endsWith(" " + path)).count();
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}